@@ -0,0 +1,64 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+
+/**
+ * Serves pages recorded in a local directory, one file per page named
+ * after its page id as it appears in the teletext url.
+ */
+final class DirectoryPageSource implements PageSource {
+
+	private final File myDirectory;
+
+	public DirectoryPageSource(final File directory) {
+		myDirectory = directory;
+	}
+
+	@Override
+	public PageResponse readPage(final PageLoadRequest pageLoadRequest,
+			final PageEntity cachedPageEntity,
+			final ByteArrayPool byteArrayPool) throws IOException {
+		final File pageFile = new File(myDirectory,
+				pageLoadRequest.getPageId());
+		if (!pageFile.isFile())
+			throw new FileNotFoundException(pageFile.getPath());
+
+		final String eTag = "\"" + pageFile.length() + "-"
+				+ pageFile.lastModified() + "\"";
+		if (cachedPageEntity != null && eTag.equals(cachedPageEntity.getETag()))
+			return PageResponse.notModified();
+
+		final InputStream inputStream = new FileInputStream(pageFile);
+		try {
+			return PageResponse.read(inputStream, (int) pageFile.length(),
+					byteArrayPool, eTag, null);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	@Override
+	public void prewarm() {
+	}
+}
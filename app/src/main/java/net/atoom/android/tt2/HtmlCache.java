@@ -0,0 +1,181 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.atoom.android.tt2.util.LogBridge;
+
+/**
+ * Two-tier cache of rendered page html. The most recently rendered pages
+ * stay hot as Strings, older ones are kept deflated, which shrinks the
+ * repetitive markup many times over, and are inflated again on access.
+ * Both tiers share one byte budget, cold pages are dropped least recently
+ * used first. Entries are keyed by packed PageId and carry the content
+ * version they were rendered from, so a refreshed page replaces its old
+ * html instead of adding to it.
+ */
+final class HtmlCache {
+
+	private static final String CHARSET = "UTF-8";
+	// map entry, boxed key and the entry itself on a 32-bit VM
+	private static final int ENTRY_OVERHEAD = 72;
+	private static final int STRING_OVERHEAD = 40;
+	private static final int ARRAY_OVERHEAD = 16;
+
+	// access ordered, least recently used first
+	private final LinkedHashMap<Integer, Entry> myHotEntries = new LinkedHashMap<Integer, Entry>(
+			8, 0.75f, true);
+	private final LinkedHashMap<Integer, Entry> myColdEntries = new LinkedHashMap<Integer, Entry>(
+			16, 0.75f, true);
+	private final int myHotCapacity;
+	private final long myByteBudget;
+	private final Deflater myDeflater = new Deflater(Deflater.BEST_SPEED);
+	private final Inflater myInflater = new Inflater();
+	private final byte[] myBuffer = new byte[8192];
+	private long myWeight;
+
+	public HtmlCache(final int hotCapacity, final long byteBudget) {
+		myHotCapacity = hotCapacity;
+		myByteBudget = byteBudget;
+	}
+
+	/**
+	 * Returns the html of the given version of the page, or null. Html of
+	 * any other version is dropped.
+	 */
+	public synchronized String get(final int pageKey, final int contentVersion) {
+		final Integer key = Integer.valueOf(pageKey);
+		final Entry hotEntry = myHotEntries.get(key);
+		if (hotEntry != null) {
+			if (hotEntry.myContentVersion == contentVersion)
+				return hotEntry.myHtmlData;
+			myHotEntries.remove(key);
+			myWeight -= hotEntry.myWeight;
+			return null;
+		}
+		final Entry coldEntry = myColdEntries.remove(key);
+		if (coldEntry == null)
+			return null;
+		myWeight -= coldEntry.myWeight;
+		if (coldEntry.myContentVersion != contentVersion)
+			return null;
+		final String htmlData = inflate(coldEntry.myCompressedData);
+		if (htmlData != null)
+			put(pageKey, contentVersion, htmlData);
+		return htmlData;
+	}
+
+	public synchronized void put(final int pageKey, final int contentVersion,
+			final String htmlData) {
+		final Integer key = Integer.valueOf(pageKey);
+		final Entry entry = new Entry(contentVersion, htmlData, null);
+		final Entry previousEntry = myHotEntries.put(key, entry);
+		if (previousEntry != null)
+			myWeight -= previousEntry.myWeight;
+		final Entry coldEntry = myColdEntries.remove(key);
+		if (coldEntry != null)
+			myWeight -= coldEntry.myWeight;
+		myWeight += entry.myWeight;
+
+		if (myHotEntries.size() > myHotCapacity) {
+			final Iterator<Map.Entry<Integer, Entry>> iterator = myHotEntries
+					.entrySet().iterator();
+			final Map.Entry<Integer, Entry> eldest = iterator.next();
+			iterator.remove();
+			final Entry eldestEntry = eldest.getValue();
+			myWeight -= eldestEntry.myWeight;
+			final byte[] compressedData = deflate(eldestEntry.myHtmlData);
+			if (compressedData != null) {
+				final Entry compressedEntry = new Entry(
+						eldestEntry.myContentVersion, null, compressedData);
+				myColdEntries.put(eldest.getKey(), compressedEntry);
+				myWeight += compressedEntry.myWeight;
+			}
+		}
+
+		final Iterator<Entry> iterator = myColdEntries.values().iterator();
+		while (myWeight > myByteBudget && iterator.hasNext()) {
+			myWeight -= iterator.next().myWeight;
+			iterator.remove();
+		}
+	}
+
+	private byte[] deflate(final String htmlData) {
+		try {
+			myDeflater.reset();
+			myDeflater.setInput(htmlData.getBytes(CHARSET));
+			myDeflater.finish();
+			final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+					htmlData.length() / 8);
+			while (!myDeflater.finished()) {
+				final int count = myDeflater.deflate(myBuffer);
+				outputStream.write(myBuffer, 0, count);
+			}
+			return outputStream.toByteArray();
+		} catch (final UnsupportedEncodingException e) {
+			LogBridge.w("Unsupported encoding " + CHARSET);
+			return null;
+		}
+	}
+
+	private String inflate(final byte[] compressedData) {
+		try {
+			myInflater.reset();
+			myInflater.setInput(compressedData);
+			final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+					compressedData.length * 8);
+			while (!myInflater.finished()) {
+				final int count = myInflater.inflate(myBuffer);
+				if (count == 0 && myInflater.needsInput())
+					throw new DataFormatException("Truncated html data");
+				outputStream.write(myBuffer, 0, count);
+			}
+			return outputStream.toString(CHARSET);
+		} catch (final DataFormatException e) {
+			LogBridge.w("Corrupt compressed html " + e.getMessage());
+			return null;
+		} catch (final UnsupportedEncodingException e) {
+			LogBridge.w("Unsupported encoding " + CHARSET);
+			return null;
+		}
+	}
+
+	private static final class Entry {
+
+		private final int myContentVersion;
+		private final String myHtmlData;
+		private final byte[] myCompressedData;
+		private final int myWeight;
+
+		public Entry(final int contentVersion, final String htmlData,
+				final byte[] compressedData) {
+			myContentVersion = contentVersion;
+			myHtmlData = htmlData;
+			myCompressedData = compressedData;
+			myWeight = ENTRY_OVERHEAD
+					+ (htmlData != null ? STRING_OVERHEAD + 2 * htmlData.length()
+							: ARRAY_OVERHEAD + compressedData.length);
+		}
+	}
+}
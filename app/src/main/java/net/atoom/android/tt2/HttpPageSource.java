@@ -0,0 +1,100 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+import net.atoom.android.tt2.util.LogBridge;
+
+final class HttpPageSource implements PageSource {
+
+	private static final String PREWARM_PAGE_ID = "101-0";
+
+	private final PageConnectionManager myConnectionManager;
+
+	public HttpPageSource(final PageLoaderConfig pageLoaderConfig) {
+		this(pageLoaderConfig.getBaseUrl(), pageLoaderConfig);
+	}
+
+	/**
+	 * Source for the given base url, using the connection settings of the
+	 * configuration.
+	 */
+	public HttpPageSource(final String baseUrl,
+			final PageLoaderConfig pageLoaderConfig) {
+		myConnectionManager = new PageConnectionManager(baseUrl,
+				pageLoaderConfig.getConnectTimeout(),
+				pageLoaderConfig.getReadTimeout());
+	}
+
+	@Override
+	public void prewarm() {
+		myConnectionManager.prewarm(PREWARM_PAGE_ID);
+	}
+
+	@Override
+	public PageResponse readPage(final PageLoadRequest pageLoadRequest,
+			final PageEntity cachedPageEntity,
+			final ByteArrayPool byteArrayPool) throws IOException {
+		final String pageId = pageLoadRequest.getPageId();
+		HttpURLConnection connection = null;
+		InputStream inputStream = null;
+		try {
+			connection = myConnectionManager.openConnection(pageId);
+			if (cachedPageEntity != null) {
+				if (cachedPageEntity.getETag() != null)
+					connection.setRequestProperty("If-None-Match",
+							cachedPageEntity.getETag());
+				if (cachedPageEntity.getLastModified() != null)
+					connection.setRequestProperty("If-Modified-Since",
+							cachedPageEntity.getLastModified());
+			}
+			pageLoadRequest.addConnection(connection);
+			final int responseCode = connection.getResponseCode();
+			if (cachedPageEntity != null
+					&& responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				inputStream = connection.getInputStream();
+				return PageResponse.notModified();
+			}
+			if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+					&& responseCode < HttpURLConnection.HTTP_INTERNAL_ERROR)
+				throw new FileNotFoundException(pageId);
+			if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+				throw new IOException("HTTP " + responseCode + " for "
+						+ pageId);
+			inputStream = myConnectionManager.getInputStream(connection);
+			return PageResponse.read(inputStream,
+					myConnectionManager.getContentLength(connection),
+					byteArrayPool, connection.getHeaderField("ETag"),
+					connection.getHeaderField("Last-Modified"));
+		} catch (final IOException e) {
+			LogBridge.w("IoException while loading " + pageId);
+			if (connection != null)
+				myConnectionManager.abortConnection(connection, inputStream);
+			inputStream = null;
+			throw e;
+		} finally {
+			if (connection != null)
+				pageLoadRequest.removeConnection(connection);
+			if (inputStream != null)
+				myConnectionManager.releaseConnection(connection, inputStream);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+import net.atoom.android.tt2.util.LogBridge;
+
+/**
+ * Tries an ordered list of sources until one has the page. A source that
+ * fails is skipped for a while, a source that merely misses the page is
+ * not. The last source is always tried.
+ */
+final class MirrorPageSource implements PageSource {
+
+	private final PageSource[] myPageSources;
+	private final AtomicLongArray myFailedUntil;
+	private final long myRetryDelay;
+
+	public MirrorPageSource(final List<PageSource> pageSources,
+			final long retryDelay) {
+		if (pageSources.isEmpty())
+			throw new IllegalArgumentException("No page sources");
+		myPageSources = pageSources.toArray(new PageSource[pageSources
+				.size()]);
+		myFailedUntil = new AtomicLongArray(myPageSources.length);
+		myRetryDelay = retryDelay;
+	}
+
+	@Override
+	public PageResponse readPage(final PageLoadRequest pageLoadRequest,
+			final PageEntity cachedPageEntity,
+			final ByteArrayPool byteArrayPool) throws IOException {
+		final int last = myPageSources.length - 1;
+		IOException failure = null;
+		for (int i = 0; i <= last; i++) {
+			if (i < last
+					&& System.currentTimeMillis() < myFailedUntil.get(i))
+				continue;
+			try {
+				final PageResponse pageResponse = myPageSources[i].readPage(
+						pageLoadRequest, cachedPageEntity, byteArrayPool);
+				myFailedUntil.set(i, 0);
+				return pageResponse;
+			} catch (final FileNotFoundException e) {
+				failure = e;
+			} catch (final IOException e) {
+				if (pageLoadRequest.isAborted())
+					throw e;
+				failure = e;
+				myFailedUntil.set(i, System.currentTimeMillis() + myRetryDelay);
+				LogBridge.w("Page source " + i + " failed, skipping it for "
+						+ myRetryDelay + "ms");
+			}
+		}
+		throw failure;
+	}
+
+	@Override
+	public void prewarm() {
+		myPageSources[0].prewarm();
+	}
+}
@@ -0,0 +1,681 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+import net.atoom.android.tt2.util.DirectBufferPool;
+import net.atoom.android.tt2.util.LogBridge;
+
+/**
+ * Fetches pages over non-blocking sockets, multiplexing all exchanges on a
+ * single I/O thread. Responses are parsed in pooled direct buffers and only
+ * the body is copied out into a pooled array for the PageProcessor, inflated
+ * when the server compressed it.
+ * Connections are kept alive and reused, requests are not pipelined.
+ */
+final class NioPageSource implements PageSource {
+
+	private static final String CHARSET = "ISO-8859-1";
+	private static final long SELECT_TIMEOUT = 250;
+	private static final long ABORT_POLL_INTERVAL = 100;
+	private static final int RESPONSE_SIZE_HINT = 4096;
+	private static final int INFLATE_BUFFER_SIZE = 1024;
+
+	private static final int FRAMING_NONE = 0;
+	private static final int FRAMING_LENGTH = 1;
+	private static final int FRAMING_CHUNKED = 2;
+	private static final int FRAMING_CLOSE = 3;
+
+	private final String myHost;
+	private final int myPort;
+	private final String myPath;
+	private final int myMaxConnections;
+	private final long myConnectTimeout;
+	private final long myReadTimeout;
+	private final Selector mySelector;
+	private final DirectBufferPool myBufferPool;
+	private final Queue<Exchange> mySubmittedExchanges = new ConcurrentLinkedQueue<Exchange>();
+
+	// confined to the I/O thread
+	private final LinkedList<Exchange> myWaitingExchanges = new LinkedList<Exchange>();
+	private final List<Exchange> myActiveExchanges = new ArrayList<Exchange>();
+	private final LinkedList<SocketChannel> myIdleChannels = new LinkedList<SocketChannel>();
+	private InetSocketAddress myAddress;
+	private int myOpenConnections;
+
+	public NioPageSource(final PageLoaderConfig pageLoaderConfig)
+			throws IOException {
+		this(pageLoaderConfig.getBaseUrl(), pageLoaderConfig
+				.getNioMaxConnections(), pageLoaderConfig.getConnectTimeout(),
+				pageLoaderConfig.getReadTimeout());
+	}
+
+	public NioPageSource(final String baseUrl, final int maxConnections,
+			final int connectTimeout, final int readTimeout)
+			throws IOException {
+		final URL url = new URL(baseUrl);
+		if (!"http".equals(url.getProtocol()))
+			throw new MalformedURLException("Only http is supported: "
+					+ baseUrl);
+		myHost = url.getHost();
+		myPort = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+		myPath = url.getPath();
+		myMaxConnections = maxConnections;
+		myConnectTimeout = connectTimeout;
+		myReadTimeout = readTimeout;
+		myBufferPool = new DirectBufferPool(maxConnections);
+		mySelector = Selector.open();
+
+		final Thread ioThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runSelector();
+			}
+		}, "NioPageSource-io");
+		ioThread.setDaemon(true);
+		ioThread.start();
+	}
+
+	@Override
+	public PageResponse readPage(final PageLoadRequest pageLoadRequest,
+			final PageEntity cachedPageEntity,
+			final ByteArrayPool byteArrayPool) throws IOException {
+		final PageFuture<PageResponse> pageFuture = readPageAsync(
+				pageLoadRequest.getPageId(), cachedPageEntity, byteArrayPool);
+		try {
+			while (true) {
+				try {
+					return pageFuture.get(ABORT_POLL_INTERVAL,
+							TimeUnit.MILLISECONDS);
+				} catch (final TimeoutException e) {
+					if (pageLoadRequest.isAborted()) {
+						pageFuture.cancel(false);
+						throw new InterruptedIOException("Aborted "
+								+ pageLoadRequest.getPageId());
+					}
+				}
+			}
+		} catch (final ExecutionException e) {
+			// callers tell a missing page from a failure by its exception
+			// type, as thrown by HttpPageSource
+			final PageLoadException failure = (PageLoadException) e
+					.getCause();
+			if (failure.getCause() instanceof IOException)
+				throw (IOException) failure.getCause();
+			throw failure;
+		} catch (final InterruptedException e) {
+			pageFuture.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Starts fetching a page without blocking the caller. The future
+	 * completes on the I/O thread, listeners should hand off any real work.
+	 */
+	public PageFuture<PageResponse> readPageAsync(final String pageId,
+			final PageEntity cachedPageEntity,
+			final ByteArrayPool byteArrayPool) {
+		final Exchange exchange = new Exchange(pageId, cachedPageEntity,
+				byteArrayPool);
+		exchange.myPageFuture.setCanceller(new Runnable() {
+			@Override
+			public void run() {
+				// the I/O thread closes the exchange on its next pass
+				mySelector.wakeup();
+			}
+		});
+		mySubmittedExchanges.add(exchange);
+		mySelector.wakeup();
+		return exchange.myPageFuture;
+	}
+
+	@Override
+	public void prewarm() {
+	}
+
+	private void runSelector() {
+		while (true) {
+			try {
+				mySelector.select(SELECT_TIMEOUT);
+				final Iterator<SelectionKey> selectedKeys = mySelector
+						.selectedKeys().iterator();
+				while (selectedKeys.hasNext()) {
+					final SelectionKey selectionKey = selectedKeys.next();
+					selectedKeys.remove();
+					final Exchange exchange = (Exchange) selectionKey
+							.attachment();
+					if (exchange == null) {
+						// an idle connection was closed by the server
+						closeIdleChannel(selectionKey);
+						continue;
+					}
+					try {
+						handleKey(selectionKey, exchange);
+					} catch (final IOException e) {
+						retryOrFail(exchange, e);
+					}
+				}
+				startExchanges();
+				expireExchanges();
+			} catch (final IOException e) {
+				LogBridge.w("IoException in selector loop " + e.getMessage());
+			} catch (final RuntimeException e) {
+				LogBridge.w("Received an Exception " + e.getClass().getName());
+			}
+		}
+	}
+
+	private void startExchanges() throws IOException {
+		Exchange submittedExchange;
+		while ((submittedExchange = mySubmittedExchanges.poll()) != null)
+			myWaitingExchanges.add(submittedExchange);
+
+		while (!myWaitingExchanges.isEmpty()) {
+			final Exchange exchange = myWaitingExchanges.getFirst();
+			if (exchange.myPageFuture.isDone()) {
+				myWaitingExchanges.removeFirst();
+				myBufferPool.release(exchange.myResponse);
+				exchange.myResponse = null;
+				continue;
+			}
+			if (myIdleChannels.isEmpty()
+					&& myOpenConnections >= myMaxConnections)
+				return;
+			myWaitingExchanges.removeFirst();
+			myActiveExchanges.add(exchange);
+			try {
+				startExchange(exchange, true);
+			} catch (final IOException e) {
+				fail(exchange, e);
+			}
+		}
+	}
+
+	private void startExchange(final Exchange exchange,
+			final boolean allowReuse) throws IOException {
+		final long now = System.currentTimeMillis();
+		if (allowReuse && !myIdleChannels.isEmpty()) {
+			exchange.myChannel = myIdleChannels.removeFirst();
+			exchange.myReused = true;
+			exchange.myDeadline = now + myReadTimeout;
+			final SelectionKey selectionKey = exchange.myChannel
+					.keyFor(mySelector);
+			selectionKey.attach(exchange);
+			selectionKey.interestOps(SelectionKey.OP_WRITE);
+			return;
+		}
+
+		if (myAddress == null || myAddress.isUnresolved())
+			myAddress = new InetSocketAddress(myHost, myPort);
+		final SocketChannel channel = SocketChannel.open();
+		myOpenConnections++;
+		exchange.myChannel = channel;
+		exchange.myReused = false;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		if (channel.connect(myAddress)) {
+			exchange.myDeadline = now + myReadTimeout;
+			channel.register(mySelector, SelectionKey.OP_WRITE, exchange);
+		} else {
+			exchange.myDeadline = now + myConnectTimeout;
+			channel.register(mySelector, SelectionKey.OP_CONNECT, exchange);
+		}
+	}
+
+	private void handleKey(final SelectionKey selectionKey,
+			final Exchange exchange) throws IOException {
+		if (exchange.myPageFuture.isDone())
+			return; // cancelled, expireExchanges closes it
+
+		final SocketChannel channel = exchange.myChannel;
+		if (selectionKey.isConnectable()) {
+			channel.finishConnect();
+			exchange.myDeadline = System.currentTimeMillis() + myReadTimeout;
+			selectionKey.interestOps(SelectionKey.OP_WRITE);
+			return;
+		}
+		if (selectionKey.isWritable()) {
+			channel.write(exchange.myRequest);
+			if (!exchange.myRequest.hasRemaining())
+				selectionKey.interestOps(SelectionKey.OP_READ);
+			return;
+		}
+		if (!selectionKey.isReadable())
+			return;
+
+		if (!exchange.myResponse.hasRemaining())
+			exchange.myResponse = myBufferPool.grow(exchange.myResponse);
+		final int count = channel.read(exchange.myResponse);
+		if (count == -1) {
+			if (exchange.myFraming == FRAMING_CLOSE) {
+				complete(exchange, false);
+				return;
+			}
+			throw new EOFException("Connection closed after "
+					+ exchange.myResponse.position() + " bytes");
+		}
+		exchange.myDeadline = System.currentTimeMillis() + myReadTimeout;
+		if (parse(exchange))
+			complete(exchange, !exchange.myClose);
+	}
+
+	/**
+	 * Returns true once the response is complete. Scanning resumes where
+	 * the previous read left off.
+	 */
+	private boolean parse(final Exchange exchange) throws IOException {
+		final ByteBuffer response = exchange.myResponse;
+		final int limit = response.position();
+
+		if (exchange.myHeaderLength < 0) {
+			final int headerEnd = indexOfHeaderEnd(response,
+					Math.max(0, exchange.myScanPosition - 3), limit);
+			exchange.myScanPosition = limit;
+			if (headerEnd < 0)
+				return false;
+			exchange.myHeaderLength = headerEnd;
+			parseHeaders(exchange);
+			exchange.myScanPosition = headerEnd;
+		}
+
+		switch (exchange.myFraming) {
+		case FRAMING_NONE:
+			return true;
+		case FRAMING_LENGTH:
+			return limit >= exchange.myHeaderLength + exchange.myContentLength;
+		case FRAMING_CHUNKED:
+			return scanChunks(exchange, limit);
+		default:
+			return false;
+		}
+	}
+
+	private boolean scanChunks(final Exchange exchange, final int limit)
+			throws IOException {
+		final ByteBuffer response = exchange.myResponse;
+		while (true) {
+			final int lineEnd = indexOfLineEnd(response,
+					exchange.myScanPosition, limit);
+			if (lineEnd < 0)
+				return false;
+			final int chunkSize = parseChunkSize(response,
+					exchange.myScanPosition, lineEnd);
+			final int chunkEnd = lineEnd + 2 + chunkSize + 2;
+			if (chunkEnd > limit)
+				return false;
+			exchange.myBodyLength += chunkSize;
+			exchange.myScanPosition = chunkEnd;
+			if (chunkSize == 0)
+				return true; // trailers are not supported
+		}
+	}
+
+	private void parseHeaders(final Exchange exchange) throws IOException {
+		final byte[] headerBytes = new byte[exchange.myHeaderLength];
+		final ByteBuffer header = exchange.myResponse.duplicate();
+		header.flip();
+		header.get(headerBytes);
+		final String[] lines = new String(headerBytes, CHARSET).split("\r\n");
+
+		final String[] statusLine = lines[0].split(" ", 3);
+		if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/1."))
+			throw new IOException("Malformed status line " + lines[0]);
+		try {
+			exchange.myStatus = Integer.parseInt(statusLine[1]);
+		} catch (final NumberFormatException e) {
+			throw new IOException("Malformed status line " + lines[0]);
+		}
+		exchange.myClose = statusLine[0].equals("HTTP/1.0");
+
+		int contentLength = -1;
+		boolean chunked = false;
+		for (int i = 1; i < lines.length; i++) {
+			final int separator = lines[i].indexOf(':');
+			if (separator <= 0)
+				continue;
+			final String name = lines[i].substring(0, separator).trim();
+			final String value = lines[i].substring(separator + 1).trim();
+			if (name.equalsIgnoreCase("Content-Length"))
+				contentLength = parseContentLength(value);
+			else if (name.equalsIgnoreCase("Transfer-Encoding"))
+				chunked = value.equalsIgnoreCase("chunked");
+			else if (name.equalsIgnoreCase("Content-Encoding"))
+				exchange.myContentEncoding = value;
+			else if (name.equalsIgnoreCase("Connection"))
+				exchange.myClose = value.equalsIgnoreCase("close");
+			else if (name.equalsIgnoreCase("ETag"))
+				exchange.myETag = value;
+			else if (name.equalsIgnoreCase("Last-Modified"))
+				exchange.myLastModified = value;
+		}
+
+		if (exchange.myStatus == 204 || exchange.myStatus == 304
+				|| exchange.myStatus < 200) {
+			exchange.myFraming = FRAMING_NONE;
+		} else if (chunked) {
+			exchange.myFraming = FRAMING_CHUNKED;
+		} else if (contentLength >= 0) {
+			exchange.myFraming = FRAMING_LENGTH;
+			exchange.myContentLength = contentLength;
+			exchange.myBodyLength = contentLength;
+		} else {
+			exchange.myFraming = FRAMING_CLOSE;
+			exchange.myClose = true;
+		}
+	}
+
+	private void complete(final Exchange exchange, final boolean keepAlive) {
+		myActiveExchanges.remove(exchange);
+		final String pageId = exchange.myPageId;
+		final int status = exchange.myStatus;
+		if (status == 304 && exchange.myConditional) {
+			release(exchange, keepAlive);
+			exchange.myPageFuture.complete(PageResponse.notModified());
+			return;
+		}
+		if (status < 200 || status >= 300) {
+			release(exchange, keepAlive);
+			exchange.myPageFuture.fail(PageLoadException.from(pageId,
+					status >= 400 && status < 500 ? new FileNotFoundException(
+							pageId) : new IOException("HTTP " + status
+							+ " for " + pageId)));
+			return;
+		}
+
+		if (exchange.myFraming == FRAMING_CLOSE)
+			exchange.myBodyLength = exchange.myResponse.position()
+					- exchange.myHeaderLength;
+		final byte[] bytes = exchange.myByteArrayPool
+				.acquire(exchange.myBodyLength);
+		copyBody(exchange, bytes);
+		release(exchange, keepAlive);
+		final PageResponse pageResponse;
+		try {
+			pageResponse = decodeBody(exchange, bytes);
+		} catch (final IOException e) {
+			exchange.myPageFuture.fail(PageLoadException.from(pageId, e));
+			return;
+		}
+		// the future may have been cancelled meanwhile
+		if (!exchange.myPageFuture.complete(pageResponse))
+			exchange.myByteArrayPool.release(pageResponse.getBytes());
+	}
+
+	private PageResponse decodeBody(final Exchange exchange, final byte[] bytes)
+			throws IOException {
+		final String contentEncoding = exchange.myContentEncoding;
+		if (contentEncoding == null
+				|| contentEncoding.equalsIgnoreCase("identity"))
+			return PageResponse.content(bytes, exchange.myBodyLength,
+					exchange.myETag, exchange.myLastModified);
+		InputStream inputStream = null;
+		try {
+			final InputStream body = new ByteArrayInputStream(bytes, 0,
+					exchange.myBodyLength);
+			if (contentEncoding.equalsIgnoreCase("gzip"))
+				inputStream = new GZIPInputStream(body, INFLATE_BUFFER_SIZE);
+			else if (contentEncoding.equalsIgnoreCase("deflate"))
+				inputStream = new InflaterInputStream(body);
+			else
+				throw new IOException("Unsupported Content-Encoding "
+						+ contentEncoding);
+			return PageResponse.read(inputStream, -1,
+					exchange.myByteArrayPool, exchange.myETag,
+					exchange.myLastModified);
+		} finally {
+			if (inputStream != null)
+				inputStream.close(); // frees the native inflater
+			exchange.myByteArrayPool.release(bytes);
+		}
+	}
+
+	private void copyBody(final Exchange exchange, final byte[] bytes) {
+		final ByteBuffer body = exchange.myResponse.duplicate();
+		body.flip();
+		if (exchange.myFraming != FRAMING_CHUNKED) {
+			body.position(exchange.myHeaderLength);
+			body.get(bytes, 0, exchange.myBodyLength);
+			return;
+		}
+		int position = exchange.myHeaderLength;
+		int length = 0;
+		while (true) {
+			final int lineEnd = indexOfLineEnd(body, position, body.limit());
+			final int chunkSize;
+			try {
+				chunkSize = parseChunkSize(body, position, lineEnd);
+			} catch (final IOException e) {
+				throw new IllegalStateException(e); // scanned before
+			}
+			if (chunkSize == 0)
+				return;
+			body.position(lineEnd + 2);
+			body.get(bytes, length, chunkSize);
+			length += chunkSize;
+			position = lineEnd + 2 + chunkSize + 2;
+		}
+	}
+
+	private void release(final Exchange exchange, final boolean keepAlive) {
+		myBufferPool.release(exchange.myResponse);
+		exchange.myResponse = null;
+		final SocketChannel channel = exchange.myChannel;
+		exchange.myChannel = null;
+		if (channel == null)
+			return;
+		final SelectionKey selectionKey = channel.keyFor(mySelector);
+		if (keepAlive && selectionKey != null && selectionKey.isValid()) {
+			selectionKey.attach(null);
+			// read interest tells when the server closes the idle connection
+			selectionKey.interestOps(SelectionKey.OP_READ);
+			myIdleChannels.addFirst(channel);
+			return;
+		}
+		closeChannel(channel);
+	}
+
+	private void retryOrFail(final Exchange exchange, final IOException e) {
+		// a reused keep-alive connection may have been closed by the server
+		if (exchange.myReused && exchange.myResponse.position() == 0
+				&& !exchange.myPageFuture.isDone()) {
+			closeChannel(exchange.myChannel);
+			exchange.myChannel = null;
+			exchange.myRequest.rewind();
+			try {
+				startExchange(exchange, false);
+				return;
+			} catch (final IOException retryException) {
+				fail(exchange, retryException);
+				return;
+			}
+		}
+		fail(exchange, e);
+	}
+
+	private void fail(final Exchange exchange, final IOException e) {
+		myActiveExchanges.remove(exchange);
+		myBufferPool.release(exchange.myResponse);
+		exchange.myResponse = null;
+		if (exchange.myChannel != null) {
+			closeChannel(exchange.myChannel);
+			exchange.myChannel = null;
+		}
+		exchange.myPageFuture.fail(PageLoadException.from(exchange.myPageId,
+				e));
+	}
+
+	private void expireExchanges() {
+		final long now = System.currentTimeMillis();
+		for (int i = myActiveExchanges.size() - 1; i >= 0; i--) {
+			final Exchange exchange = myActiveExchanges.get(i);
+			if (exchange.myPageFuture.isDone())
+				fail(exchange, new InterruptedIOException("Cancelled"));
+			else if (now > exchange.myDeadline)
+				fail(exchange, new SocketTimeoutException("Timed out loading "
+						+ exchange.myPageId));
+		}
+	}
+
+	private void closeIdleChannel(final SelectionKey selectionKey) {
+		final SocketChannel channel = (SocketChannel) selectionKey.channel();
+		myIdleChannels.remove(channel);
+		closeChannel(channel);
+	}
+
+	private void closeChannel(final SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (final IOException e) {
+		}
+		myOpenConnections--;
+	}
+
+	private static int parseContentLength(final String value)
+			throws IOException {
+		try {
+			return Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			throw new IOException("Malformed Content-Length " + value);
+		}
+	}
+
+	private static int indexOfHeaderEnd(final ByteBuffer buffer,
+			final int from, final int limit) {
+		for (int i = from; i + 3 < limit; i++) {
+			if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n'
+					&& buffer.get(i + 2) == '\r' && buffer.get(i + 3) == '\n')
+				return i + 4;
+		}
+		return -1;
+	}
+
+	private static int indexOfLineEnd(final ByteBuffer buffer, final int from,
+			final int limit) {
+		for (int i = from; i + 1 < limit; i++) {
+			if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n')
+				return i;
+		}
+		return -1;
+	}
+
+	private static int parseChunkSize(final ByteBuffer buffer, final int from,
+			final int to) throws IOException {
+		int chunkSize = 0;
+		int digits = 0;
+		for (int i = from; i < to; i++) {
+			final int digit = Character.digit(buffer.get(i), 16);
+			if (digit < 0)
+				break; // chunk extension
+			chunkSize = chunkSize * 16 + digit;
+			digits++;
+		}
+		if (digits == 0 || digits > 7)
+			throw new IOException("Malformed chunk size");
+		return chunkSize;
+	}
+
+	private final class Exchange {
+
+		private final String myPageId;
+		private final ByteArrayPool myByteArrayPool;
+		private final PageFuture<PageResponse> myPageFuture;
+		private final ByteBuffer myRequest;
+		private final boolean myConditional;
+
+		// confined to the I/O thread
+		private ByteBuffer myResponse;
+		private SocketChannel myChannel;
+		private boolean myReused;
+		private long myDeadline;
+		private int myScanPosition;
+		private int myHeaderLength = -1;
+		private int myStatus;
+		private int myFraming;
+		private int myContentLength;
+		private int myBodyLength;
+		private boolean myClose;
+		private String myContentEncoding;
+		private String myETag;
+		private String myLastModified;
+
+		public Exchange(final String pageId,
+				final PageEntity cachedPageEntity,
+				final ByteArrayPool byteArrayPool) {
+			myPageId = pageId;
+			myByteArrayPool = byteArrayPool;
+			myPageFuture = new PageFuture<PageResponse>(pageId);
+			myResponse = myBufferPool.acquire(RESPONSE_SIZE_HINT);
+
+			final StringBuilder request = new StringBuilder(256);
+			request.append("GET ").append(myPath).append(pageId)
+					.append(" HTTP/1.1\r\nHost: ").append(myHost);
+			if (myPort != 80)
+				request.append(':').append(myPort);
+			request.append("\r\nConnection: keep-alive\r\nAccept-Encoding: gzip, deflate\r\n");
+			boolean conditional = false;
+			if (cachedPageEntity != null) {
+				if (cachedPageEntity.getETag() != null) {
+					request.append("If-None-Match: ")
+							.append(cachedPageEntity.getETag()).append("\r\n");
+					conditional = true;
+				}
+				if (cachedPageEntity.getLastModified() != null) {
+					request.append("If-Modified-Since: ")
+							.append(cachedPageEntity.getLastModified())
+							.append("\r\n");
+					conditional = true;
+				}
+			}
+			request.append("\r\n");
+			myConditional = conditional;
+			try {
+				myRequest = ByteBuffer.wrap(request.toString()
+						.getBytes(CHARSET));
+			} catch (final UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads a set of pages in parallel and completes once all of them are in.
+ * A subpage batch discovers the subpages by following the next subpage
+ * links, keeping a window of guessed subpage ids in flight ahead of them.
+ * A guess may lie past the last subpage, so it loads at no more than LINK
+ * priority until a next subpage link confirms it.
+ */
+final class PageBatchHandle {
+
+	private static final int SUBPAGE_WINDOW = 4;
+
+	private final PageLoader myPageLoader;
+	private final PageLoadPriority myPageLoadPriority;
+	private final PageLoadPriority myGuessPriority;
+	private final PageBatchCompletionHandler myPageBatchCompletionHandler;
+	private final boolean mySubPages;
+
+	// guarded by this
+	private final List<String> myPageIds = new ArrayList<String>();
+	private final Map<String, PageEntity> myPageEntities = new HashMap<String, PageEntity>();
+	private final Set<String> myRequestedPageIds = new HashSet<String>();
+	private final Set<String> myGuessedPageIds = new HashSet<String>();
+	private final Map<String, PageLoadHandle> myPageLoadHandles = new HashMap<String, PageLoadHandle>();
+	private int myPendingCount;
+	private boolean myCancelled;
+	private boolean myCompleted;
+
+	private PageBatchHandle(final PageLoader pageLoader,
+			final PageLoadPriority pageLoadPriority,
+			final PageBatchCompletionHandler pageBatchCompletionHandler,
+			final boolean subPages) {
+		myPageLoader = pageLoader;
+		myPageLoadPriority = pageLoadPriority;
+		myGuessPriority = pageLoadPriority
+				.compareTo(PageLoadPriority.LINK) < 0 ? PageLoadPriority.LINK
+				: pageLoadPriority;
+		myPageBatchCompletionHandler = pageBatchCompletionHandler;
+		mySubPages = subPages;
+	}
+
+	static PageBatchHandle forPages(final PageLoader pageLoader,
+			final List<String> pageIds,
+			final PageLoadPriority pageLoadPriority,
+			final PageBatchCompletionHandler pageBatchCompletionHandler) {
+		final PageBatchHandle pageBatchHandle = new PageBatchHandle(
+				pageLoader, pageLoadPriority, pageBatchCompletionHandler,
+				false);
+		pageBatchHandle.start(pageIds);
+		return pageBatchHandle;
+	}
+
+	static PageBatchHandle forSubPages(final PageLoader pageLoader,
+			final String pageId, final PageLoadPriority pageLoadPriority,
+			final PageBatchCompletionHandler pageBatchCompletionHandler) {
+		final PageBatchHandle pageBatchHandle = new PageBatchHandle(
+				pageLoader, pageLoadPriority, pageBatchCompletionHandler, true);
+		final List<String> pageIds = new ArrayList<String>(1);
+		pageIds.add(PageIdUtil.normalize(pageId));
+		pageBatchHandle.start(pageIds);
+		return pageBatchHandle;
+	}
+
+	public void cancel() {
+		final List<PageLoadHandle> pageLoadHandles;
+		synchronized (this) {
+			if (myCancelled || myCompleted)
+				return;
+			myCancelled = true;
+			pageLoadHandles = new ArrayList<PageLoadHandle>(
+					myPageLoadHandles.values());
+		}
+		for (final PageLoadHandle pageLoadHandle : pageLoadHandles)
+			pageLoadHandle.cancel();
+	}
+
+	public synchronized boolean isCancelled() {
+		return myCancelled;
+	}
+
+	private void start(final List<String> pageIds) {
+		synchronized (this) {
+			myPageIds.addAll(pageIds);
+			// count everything up front, cache hits complete synchronously
+			myPendingCount = pageIds.size() + 1;
+		}
+		for (final String pageId : pageIds)
+			request(pageId);
+		pageLoadDone(null, null);
+	}
+
+	private void request(final String pageId) {
+		final boolean guessed;
+		synchronized (this) {
+			guessed = myGuessedPageIds.contains(pageId);
+		}
+		final PageLoadHandle pageLoadHandle = myPageLoader.loadPage(pageId,
+				guessed ? myGuessPriority : myPageLoadPriority,
+				new PageLoadCompletionHandler() {
+
+					// guarded by PageBatchHandle.this
+					private boolean myLoaded;
+
+					@Override
+					public void pageLoadCompleted(final PageEntity pageEntity) {
+						final boolean refreshed;
+						synchronized (PageBatchHandle.this) {
+							refreshed = myLoaded;
+							myLoaded = true;
+						}
+						// a stale page is followed by its refreshed content
+						if (refreshed)
+							pageRefreshed(pageId, pageEntity);
+						else
+							pageLoadDone(pageId, pageEntity);
+					}
+				});
+		if (pageLoadHandle == null) {
+			pageLoadDone(pageId, null);
+			return;
+		}
+		final boolean cancelled;
+		final boolean confirmed;
+		synchronized (this) {
+			myRequestedPageIds.add(pageId);
+			myPageLoadHandles.put(pageId, pageLoadHandle);
+			cancelled = myCancelled;
+			// confirmed while it was being requested
+			confirmed = guessed && !myGuessedPageIds.contains(pageId);
+		}
+		if (cancelled)
+			pageLoadHandle.cancel();
+		else if (confirmed)
+			myPageLoader.raisePriority(pageLoadHandle, myPageLoadPriority);
+	}
+
+	private void pageLoadDone(final String pageId, final PageEntity pageEntity) {
+		List<String> nextPageIds = null;
+		PageLoadHandle confirmedPageLoadHandle = null;
+		synchronized (this) {
+			if (pageId != null)
+				myPageEntities.put(pageId, pageEntity);
+			if (mySubPages && pageEntity != null && !myCancelled
+					&& pageEntity.getNextSubPageId() != null) {
+				final String nextPageId = PageIdUtil.normalize(pageEntity
+						.getNextSubPageId());
+				// a guess that turned out to be a real subpage is awaited now
+				if (myGuessedPageIds.remove(nextPageId))
+					confirmedPageLoadHandle = myPageLoadHandles
+							.get(nextPageId);
+				nextPageIds = nextSubPageIds(nextPageId);
+			}
+		}
+		if (confirmedPageLoadHandle != null)
+			myPageLoader.raisePriority(confirmedPageLoadHandle,
+					myPageLoadPriority);
+		if (nextPageIds != null) {
+			for (final String nextPageId : nextPageIds)
+				request(nextPageId);
+		}
+
+		final List<PageEntity> pageEntities;
+		synchronized (this) {
+			if (--myPendingCount > 0 || myCancelled)
+				return;
+			myCompleted = true;
+			pageEntities = mySubPages ? collectSubPages() : collectPages();
+		}
+		myPageBatchCompletionHandler.pageBatchCompleted(pageEntities);
+	}
+
+	private synchronized void pageRefreshed(final String pageId,
+			final PageEntity pageEntity) {
+		if (!myCompleted)
+			myPageEntities.put(pageId, pageEntity);
+	}
+
+	// guarded by this, slides the window of guesses along with the real
+	// subpages, a guess that misses ends it
+	private List<String> nextSubPageIds(final String nextPageId) {
+		final List<String> nextPageIds = new ArrayList<String>(
+				SUBPAGE_WINDOW);
+		if (!myRequestedPageIds.contains(nextPageId))
+			nextPageIds.add(nextPageId);
+		final int separator = nextPageId.indexOf('-');
+		try {
+			final int subPage = Integer.parseInt(nextPageId
+					.substring(separator + 1));
+			for (int i = 1; i < SUBPAGE_WINDOW; i++) {
+				final String guessedPageId = nextPageId.substring(0,
+						separator + 1) + (subPage + i);
+				if (!myRequestedPageIds.contains(guessedPageId)) {
+					nextPageIds.add(guessedPageId);
+					myGuessedPageIds.add(guessedPageId);
+				}
+			}
+		} catch (final NumberFormatException e) {
+			// no guessing ahead
+		}
+		if (nextPageIds.isEmpty())
+			return null;
+		// claim them before the lock is released
+		myRequestedPageIds.addAll(nextPageIds);
+		myPendingCount += nextPageIds.size();
+		return nextPageIds;
+	}
+
+	// guarded by this
+	private List<PageEntity> collectPages() {
+		final List<PageEntity> pageEntities = new ArrayList<PageEntity>(
+				myPageIds.size());
+		for (final String pageId : myPageIds)
+			pageEntities.add(myPageEntities.get(pageId));
+		return pageEntities;
+	}
+
+	// guarded by this
+	private List<PageEntity> collectSubPages() {
+		final List<PageEntity> pageEntities = new ArrayList<PageEntity>();
+		final Set<String> visitedPageIds = new HashSet<String>();
+		String pageId = myPageIds.get(0);
+		while (pageId != null && visitedPageIds.add(pageId)) {
+			final PageEntity pageEntity = myPageEntities.get(pageId);
+			if (pageEntity == null)
+				break;
+			pageEntities.add(pageEntity);
+			pageId = pageEntity.getNextSubPageId() == null ? null
+					: PageIdUtil.normalize(pageEntity.getNextSubPageId());
+		}
+		return pageEntities;
+	}
+}
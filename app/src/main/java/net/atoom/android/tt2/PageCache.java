@@ -0,0 +1,251 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import net.atoom.android.tt2.util.FrequencySketch;
+import net.atoom.android.tt2.util.IntObjectMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Page cache keyed by packed PageId, striped by magazine. Every stripe
+ * publishes an open addressing map that writers copy and replace under the
+ * stripe's lock, so lookups take no lock and allocate nothing. The cache
+ * is bounded by the estimated bytes its entries retain.
+ * <p>
+ * Speculatively loaded pages enter a probationary segment and move to the
+ * protected segment on their first real hit, pages the user requested
+ * enter it directly. Eviction takes the least recently used probationary
+ * entry first, so a burst of preloads cannot flush the pages the user
+ * visited. A speculative page is only admitted over a victim that was
+ * visited at least as often recently, as estimated by a frequency sketch.
+ */
+final class PageCache {
+
+	private static final int STRIPE_COUNT = 10;
+	private static final int PROTECTED_PERCENTAGE = 80;
+
+	private final Stripe[] myStripes = new Stripe[STRIPE_COUNT];
+	private final long myByteBudget;
+	private final long myProtectedBudget;
+	private final FrequencySketch myFrequencySketch;
+	private final AtomicLong myWeight = new AtomicLong();
+	private final AtomicLong myProtectedWeight = new AtomicLong();
+
+	public PageCache(final long byteBudget) {
+		myByteBudget = byteBudget;
+		myProtectedBudget = byteBudget * PROTECTED_PERCENTAGE / 100;
+		myFrequencySketch = new FrequencySketch((int) Math.min(
+				Integer.MAX_VALUE, byteBudget
+						/ PageEntity.TYPICAL_RETAINED_BYTES));
+		for (int i = 0; i < STRIPE_COUNT; i++)
+			myStripes[i] = new Stripe();
+	}
+
+	/**
+	 * Returns the cached page for a real hit, one the user is shown, which
+	 * counts towards its popularity and protects it from preloads.
+	 */
+	public PageEntity get(final int pageKey) {
+		final Stripe stripe = stripeFor(pageKey);
+		final Node node = stripe.get(pageKey);
+		if (node == null)
+			return null;
+		node.myAccessTime = System.nanoTime();
+		myFrequencySketch.increment(pageKey);
+		if (!node.myProtected)
+			promote(stripe, node);
+		return node.myPageEntity;
+	}
+
+	/**
+	 * Returns the cached page without counting it as a hit.
+	 */
+	public PageEntity peek(final int pageKey) {
+		final Node node = stripeFor(pageKey).get(pageKey);
+		return node != null ? node.myPageEntity : null;
+	}
+
+	/**
+	 * Caches the given page, speculative when it was loaded without the
+	 * user asking for it.
+	 */
+	public void put(final int pageKey, final PageEntity pageEntity,
+			final boolean speculative) {
+		final Node node = new Node(pageKey, pageEntity,
+				pageEntity.estimateRetainedBytes());
+		final Stripe stripe = stripeFor(pageKey);
+		synchronized (stripe) {
+			final Node previousNode = stripe.put(pageKey, node);
+			if (previousNode != null)
+				subtract(previousNode);
+			// a revalidated page keeps its segment
+			node.myProtected = !speculative
+					|| (previousNode != null && previousNode.myProtected);
+			add(node);
+		}
+		if (!speculative)
+			myFrequencySketch.increment(pageKey);
+		demoteOverflow();
+		evictOverflow(node.myProtected ? null : node);
+	}
+
+	public void remove(final int pageKey) {
+		final Stripe stripe = stripeFor(pageKey);
+		synchronized (stripe) {
+			final Node node = stripe.remove(pageKey);
+			if (node != null)
+				subtract(node);
+		}
+	}
+
+	private void promote(final Stripe stripe, final Node node) {
+		synchronized (stripe) {
+			if (node.myProtected || stripe.get(node.myPageKey) != node)
+				return;
+			node.myProtected = true;
+			myProtectedWeight.addAndGet(node.myWeight);
+		}
+		demoteOverflow();
+	}
+
+	private void demoteOverflow() {
+		while (myProtectedWeight.get() > myProtectedBudget) {
+			final Node node = findLeastRecentlyUsed(true);
+			if (node == null)
+				return;
+			final Stripe stripe = stripeFor(node.myPageKey);
+			synchronized (stripe) {
+				if (node.myProtected
+						&& stripe.get(node.myPageKey) == node) {
+					node.myProtected = false;
+					myProtectedWeight.addAndGet(-node.myWeight);
+				}
+			}
+		}
+	}
+
+	private void evictOverflow(Node candidate) {
+		while (myWeight.get() > myByteBudget) {
+			Node victim = findLeastRecentlyUsed(false);
+			if (victim == null)
+				victim = findLeastRecentlyUsed(true);
+			if (victim == null)
+				return;
+			// admission: keep the victim if it is the more popular page
+			if (candidate != null
+					&& victim != candidate
+					&& myFrequencySketch.frequency(victim.myPageKey) > myFrequencySketch
+							.frequency(candidate.myPageKey))
+				victim = candidate;
+			if (victim == candidate)
+				candidate = null;
+			evict(victim);
+		}
+	}
+
+	private void evict(final Node node) {
+		final Stripe stripe = stripeFor(node.myPageKey);
+		synchronized (stripe) {
+			if (stripe.get(node.myPageKey) == node) {
+				stripe.remove(node.myPageKey);
+				subtract(node);
+			}
+		}
+	}
+
+	// a full scan, the cache holds at most a few hundred pages
+	private Node findLeastRecentlyUsed(final boolean protectedSegment) {
+		Node leastRecentlyUsed = null;
+		for (final Stripe stripe : myStripes) {
+			final IntObjectMap<Node> nodes = stripe.myNodes;
+			for (int slot = 0; slot < nodes.capacity(); slot++) {
+				final Node node = nodes.valueAt(slot);
+				if (node != null
+						&& node.myProtected == protectedSegment
+						&& (leastRecentlyUsed == null || node.myAccessTime < leastRecentlyUsed.myAccessTime))
+					leastRecentlyUsed = node;
+			}
+		}
+		return leastRecentlyUsed;
+	}
+
+	// callers hold the lock of the node's stripe
+	private void add(final Node node) {
+		myWeight.addAndGet(node.myWeight);
+		if (node.myProtected)
+			myProtectedWeight.addAndGet(node.myWeight);
+	}
+
+	// callers hold the lock of the node's stripe
+	private void subtract(final Node node) {
+		myWeight.addAndGet(-node.myWeight);
+		if (node.myProtected)
+			myProtectedWeight.addAndGet(-node.myWeight);
+	}
+
+	private Stripe stripeFor(final int pageKey) {
+		return myStripes[PageId.getMagazine(pageKey)];
+	}
+
+	private static final class Stripe {
+
+		// never changed once published, writers replace it under the stripe
+		// lock so readers need none
+		private volatile IntObjectMap<Node> myNodes = new IntObjectMap<Node>(
+				16);
+
+		private Node get(final int pageKey) {
+			return myNodes.get(pageKey);
+		}
+
+		// callers hold the lock of the stripe
+		private Node put(final int pageKey, final Node node) {
+			final IntObjectMap<Node> nodes = new IntObjectMap<Node>(myNodes);
+			final Node previousNode = nodes.put(pageKey, node);
+			myNodes = nodes;
+			return previousNode;
+		}
+
+		// callers hold the lock of the stripe
+		private Node remove(final int pageKey) {
+			if (myNodes.get(pageKey) == null)
+				return null;
+			final IntObjectMap<Node> nodes = new IntObjectMap<Node>(myNodes);
+			final Node node = nodes.remove(pageKey);
+			myNodes = nodes;
+			return node;
+		}
+	}
+
+	private static final class Node {
+
+		private final int myPageKey;
+		private final PageEntity myPageEntity;
+		private final int myWeight;
+		private volatile long myAccessTime = System.nanoTime();
+
+		// changed under the stripe lock
+		private volatile boolean myProtected;
+
+		public Node(final int pageKey, final PageEntity pageEntity,
+				final int weight) {
+			myPageKey = pageKey;
+			myPageEntity = pageEntity;
+			myWeight = weight;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.atoom.android.tt2.util.LogBridge;
+
+final class PageConnectionManager {
+
+	private static final int DRAIN_BUFFER_SIZE = 512;
+	private static final int INFLATE_BUFFER_SIZE = 1024;
+
+	private final String myBaseUrl;
+	private final int myConnectTimeout;
+	private final int myReadTimeout;
+
+	/**
+	 * Connections are reused through the keep-alive pool of
+	 * HttpURLConnection, which is shared by the whole process and left at
+	 * its platform settings.
+	 */
+	public PageConnectionManager(final String baseUrl,
+			final int connectTimeout, final int readTimeout) {
+		myBaseUrl = baseUrl;
+		myConnectTimeout = connectTimeout;
+		myReadTimeout = readTimeout;
+	}
+
+	public HttpURLConnection openConnection(final String pageId)
+			throws IOException {
+		final URL pageUrl = new URL(myBaseUrl + pageId);
+		final HttpURLConnection connection = (HttpURLConnection) pageUrl
+				.openConnection();
+		connection.setConnectTimeout(myConnectTimeout);
+		connection.setReadTimeout(myReadTimeout);
+		connection.setRequestProperty("Connection", "keep-alive");
+		connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+		return connection;
+	}
+
+	/**
+	 * Returns the response body with any content encoding undone.
+	 */
+	public InputStream getInputStream(final HttpURLConnection connection)
+			throws IOException {
+		final InputStream inputStream = connection.getInputStream();
+		final String contentEncoding = connection.getContentEncoding();
+		if ("gzip".equalsIgnoreCase(contentEncoding))
+			return new GZIPInputStream(inputStream, INFLATE_BUFFER_SIZE);
+		if ("deflate".equalsIgnoreCase(contentEncoding))
+			return new InflaterInputStream(inputStream);
+		return inputStream;
+	}
+
+	/**
+	 * Returns the decoded body length, or -1 when it is only known at EOF.
+	 */
+	public int getContentLength(final HttpURLConnection connection) {
+		final String contentEncoding = connection.getContentEncoding();
+		if (contentEncoding != null
+				&& !"identity".equalsIgnoreCase(contentEncoding))
+			return -1;
+		return connection.getContentLength();
+	}
+
+	/**
+	 * Drains and closes the response so the socket returns to the pool
+	 * instead of being torn down.
+	 */
+	public void releaseConnection(final HttpURLConnection connection,
+			final InputStream inputStream) {
+		if (inputStream == null) {
+			connection.disconnect();
+			return;
+		}
+		try {
+			final byte[] drainBuffer = new byte[DRAIN_BUFFER_SIZE];
+			while (inputStream.read(drainBuffer) != -1)
+				;
+			inputStream.close();
+		} catch (final IOException e) {
+			connection.disconnect();
+		}
+	}
+
+	public void abortConnection(final HttpURLConnection connection,
+			final InputStream inputStream) {
+		if (inputStream != null) {
+			try {
+				inputStream.close();
+			} catch (final IOException e) {
+			}
+		}
+		connection.disconnect();
+	}
+
+	/**
+	 * Opens a connection in the background with a HEAD request, leaving an
+	 * idle socket in the keep-alive pool without downloading a page.
+	 */
+	public void prewarm(final String pageId) {
+		final Thread prewarmThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				HttpURLConnection connection = null;
+				try {
+					connection = openConnection(pageId);
+					connection.setRequestMethod("HEAD");
+					final InputStream inputStream = connection
+							.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST ? connection
+							.getInputStream() : connection.getErrorStream();
+					releaseConnection(connection, inputStream);
+					if (LogBridge.isLoggable())
+						LogBridge.i("Prewarmed connection to " + myBaseUrl);
+				} catch (final IOException e) {
+					LogBridge.w("IoException while prewarming " + myBaseUrl);
+					if (connection != null)
+						connection.disconnect();
+				}
+			}
+		}, "PageConnectionManager-prewarm");
+		prewarmThread.setDaemon(true);
+		prewarmThread.start();
+	}
+}
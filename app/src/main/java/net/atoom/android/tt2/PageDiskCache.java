@@ -0,0 +1,382 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import net.atoom.android.tt2.util.LogBridge;
+
+/**
+ * Second cache tier keeping the raw bytes of loaded pages in an append-only
+ * file, so a cold start can show the last known pages before they are
+ * revalidated. Every record carries a CRC32, the index is rebuilt by
+ * scanning the file on first use. A record failing its checksum is
+ * skipped, a torn tail or a corrupt header truncates the file. Once the
+ * file outgrows its size the latest record of each page is rewritten to a
+ * fresh file, dropping the least recently used pages.
+ */
+final class PageDiskCache {
+
+	private static final String FILE_NAME = "pages.log";
+	private static final String COMPACT_FILE_NAME = "pages.tmp";
+	private static final int FILE_MAGIC = 0x54545043; // TTPC
+	private static final int FILE_VERSION = 1;
+	private static final int FILE_HEADER_LENGTH = 8;
+	private static final int RECORD_MAGIC = 0x54545052; // TTPR
+	private static final int RECORD_HEADER_LENGTH = 12;
+	private static final int MAX_BODY_LENGTH = 64 * 1024;
+	private static final int MAX_PENDING_TOUCHES = 256;
+
+	private static final Map<File, PageDiskCache> INSTANCES = new HashMap<File, PageDiskCache>();
+
+	private final File myFile;
+	private final File myCompactFile;
+	private final long myMaxSize;
+	private final Queue<String> myPendingTouches = new ConcurrentLinkedQueue<String>();
+	private final AtomicInteger myPendingTouchCount = new AtomicInteger();
+	private final Map<String, Record> myIndex = new HashMap<String, Record>();
+	private RandomAccessFile myRandomAccessFile;
+	private long myLiveBytes;
+	private long myAccessCount;
+
+	/**
+	 * Returns the disk cache in the given directory, shared by all loaders
+	 * in this process since they would otherwise append to the same file.
+	 */
+	public static PageDiskCache forDirectory(final File directory,
+			final long maxSize) {
+		synchronized (INSTANCES) {
+			PageDiskCache pageDiskCache = INSTANCES.get(directory);
+			if (pageDiskCache == null) {
+				pageDiskCache = new PageDiskCache(directory, maxSize);
+				INSTANCES.put(directory, pageDiskCache);
+			}
+			return pageDiskCache;
+		}
+	}
+
+	// a second instance over the same directory reads what the first wrote
+	PageDiskCache(final File directory, final long maxSize) {
+		myFile = new File(directory, FILE_NAME);
+		myCompactFile = new File(directory, COMPACT_FILE_NAME);
+		myMaxSize = maxSize;
+	}
+
+	/**
+	 * Returns the stored page as a response carrying its validators, or null
+	 * when it is not stored or its record is corrupt.
+	 */
+	public synchronized PageResponse get(final String pageId) {
+		try {
+			if (!open())
+				return null;
+			applyTouches();
+			final Record record = myIndex.get(pageId);
+			if (record == null)
+				return null;
+			record.myAccess = ++myAccessCount;
+			final byte[] bytes = new byte[record.myLength];
+			myRandomAccessFile.seek(record.myOffset);
+			myRandomAccessFile.readFully(bytes);
+			final DataInputStream dataInputStream = new DataInputStream(
+					new ByteArrayInputStream(bytes));
+			final int bodyLength = readHeader(dataInputStream);
+			final int checksum = dataInputStream.readInt();
+			if (bodyLength == -1
+					|| bodyLength != record.myLength - RECORD_HEADER_LENGTH
+					|| checksum != checksum(bytes, RECORD_HEADER_LENGTH,
+							bodyLength)) {
+				LogBridge.w("Dropping corrupt disk cache record " + pageId);
+				myIndex.remove(pageId);
+				myLiveBytes -= record.myLength;
+				return null;
+			}
+			dataInputStream.readUTF(); // page id
+			final String eTag = readOptionalUTF(dataInputStream);
+			final String lastModified = readOptionalUTF(dataInputStream);
+			final int offset = record.myLength - dataInputStream.available();
+			final byte[] content = new byte[record.myLength - offset];
+			System.arraycopy(bytes, offset, content, 0, content.length);
+			return PageResponse.content(content, content.length, eTag,
+					lastModified);
+		} catch (final IOException e) {
+			LogBridge.w("IoException while reading disk cache " + e.getMessage());
+			reset();
+			return null;
+		}
+	}
+
+	/**
+	 * Marks the stored page as used, so compaction keeps it longer. Does not
+	 * wait for the lock held during disk I/O, the use is recorded on the
+	 * next get or put. Uses beyond a backlog are dropped.
+	 */
+	public void touch(final String pageId) {
+		if (myPendingTouchCount.incrementAndGet() > MAX_PENDING_TOUCHES) {
+			myPendingTouchCount.decrementAndGet();
+			return;
+		}
+		myPendingTouches.offer(pageId);
+	}
+
+	public synchronized void put(final String pageId, final byte[] bytes,
+			final int length, final String eTag, final String lastModified) {
+		try {
+			if (!open())
+				return;
+			applyTouches();
+			final ByteArrayOutputStream body = new ByteArrayOutputStream(
+					length + 128);
+			final DataOutputStream dataOutputStream = new DataOutputStream(body);
+			dataOutputStream.writeUTF(pageId);
+			dataOutputStream.writeUTF(eTag != null ? eTag : "");
+			dataOutputStream.writeUTF(lastModified != null ? lastModified : "");
+			dataOutputStream.write(bytes, 0, length);
+			final byte[] bodyBytes = body.toByteArray();
+			if (bodyBytes.length > MAX_BODY_LENGTH)
+				return;
+
+			final ByteArrayOutputStream record = new ByteArrayOutputStream(
+					RECORD_HEADER_LENGTH + bodyBytes.length);
+			final DataOutputStream recordOutputStream = new DataOutputStream(
+					record);
+			recordOutputStream.writeInt(RECORD_MAGIC);
+			recordOutputStream.writeInt(bodyBytes.length);
+			recordOutputStream.writeInt(checksum(bodyBytes, 0, bodyBytes.length));
+			recordOutputStream.write(bodyBytes);
+
+			// a single write, so a crash leaves at most a torn tail
+			final long offset = myRandomAccessFile.length();
+			myRandomAccessFile.seek(offset);
+			myRandomAccessFile.write(record.toByteArray());
+			index(pageId, new Record(offset, record.size()));
+
+			if (myRandomAccessFile.length() > myMaxSize)
+				compact();
+		} catch (final IOException e) {
+			LogBridge.w("IoException while writing disk cache " + e.getMessage());
+			reset();
+		}
+	}
+
+	private boolean open() throws IOException {
+		if (myRandomAccessFile != null)
+			return true;
+		final File directory = myFile.getParentFile();
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+			return false;
+		myRandomAccessFile = new RandomAccessFile(myFile, "rw");
+		if (myRandomAccessFile.length() < FILE_HEADER_LENGTH) {
+			writeFileHeader(myRandomAccessFile);
+			return true;
+		}
+		loadIndex();
+		return true;
+	}
+
+	// scans the records from the start, truncating at the first bad one
+	private void loadIndex() throws IOException {
+		final DataInputStream dataInputStream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(myFile)));
+		long offset = 0;
+		try {
+			if (dataInputStream.readInt() != FILE_MAGIC
+					|| dataInputStream.readInt() != FILE_VERSION) {
+				LogBridge.w("Discarding disk cache of unknown format");
+			} else {
+				offset = FILE_HEADER_LENGTH;
+				final byte[] body = new byte[MAX_BODY_LENGTH];
+				while (true) {
+					final int bodyLength = readHeader(dataInputStream);
+					if (bodyLength == -1)
+						throw new IOException("Bad record header at " + offset);
+					final int checksum = dataInputStream.readInt();
+					dataInputStream.readFully(body, 0, bodyLength);
+					if (checksum == checksum(body, 0, bodyLength)) {
+						final String pageId = new DataInputStream(
+								new ByteArrayInputStream(body, 0, bodyLength))
+								.readUTF();
+						index(pageId, new Record(offset, RECORD_HEADER_LENGTH
+								+ bodyLength));
+					} else {
+						LogBridge.w("Skipping corrupt disk cache record at "
+								+ offset);
+					}
+					offset += RECORD_HEADER_LENGTH + bodyLength;
+				}
+			}
+		} catch (final EOFException e) {
+			// end of the records, possibly a torn one
+		} catch (final IOException e) {
+			LogBridge.w("Recovering corrupt disk cache " + e.getMessage());
+		} finally {
+			dataInputStream.close();
+		}
+		if (offset == 0) {
+			myIndex.clear();
+			myLiveBytes = 0;
+			writeFileHeader(myRandomAccessFile);
+		} else if (offset < myRandomAccessFile.length()) {
+			myRandomAccessFile.setLength(offset);
+		}
+	}
+
+	// rewrites the latest record of each page, least recently used dropped
+	private void compact() throws IOException {
+		final List<Map.Entry<String, Record>> entries = new ArrayList<Map.Entry<String, Record>>(
+				myIndex.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Record>>() {
+			@Override
+			public int compare(final Map.Entry<String, Record> entry1,
+					final Map.Entry<String, Record> entry2) {
+				final long access1 = entry1.getValue().myAccess;
+				final long access2 = entry2.getValue().myAccess;
+				return access1 < access2 ? -1 : access1 == access2 ? 0 : 1;
+			}
+		});
+		int first = 0;
+		long liveBytes = myLiveBytes;
+		while (liveBytes > myMaxSize / 2 && first < entries.size())
+			liveBytes -= entries.get(first++).getValue().myLength;
+
+		final Map<String, Record> index = new HashMap<String, Record>();
+		final RandomAccessFile compactFile = new RandomAccessFile(
+				myCompactFile, "rw");
+		try {
+			compactFile.setLength(0);
+			writeFileHeader(compactFile);
+			long offset = FILE_HEADER_LENGTH;
+			for (int i = first; i < entries.size(); i++) {
+				final Record record = entries.get(i).getValue();
+				final byte[] bytes = new byte[record.myLength];
+				myRandomAccessFile.seek(record.myOffset);
+				myRandomAccessFile.readFully(bytes);
+				compactFile.write(bytes);
+				final Record compactedRecord = new Record(offset,
+						record.myLength);
+				compactedRecord.myAccess = record.myAccess;
+				index.put(entries.get(i).getKey(), compactedRecord);
+				offset += record.myLength;
+			}
+		} finally {
+			compactFile.close();
+		}
+		myRandomAccessFile.close();
+		myRandomAccessFile = null;
+		if (!myCompactFile.renameTo(myFile))
+			throw new IOException("Failed to replace " + myFile);
+		myRandomAccessFile = new RandomAccessFile(myFile, "rw");
+		myIndex.clear();
+		myIndex.putAll(index);
+		myLiveBytes = liveBytes;
+	}
+
+	private void reset() {
+		myIndex.clear();
+		myLiveBytes = 0;
+		if (myRandomAccessFile != null) {
+			try {
+				myRandomAccessFile.close();
+			} catch (final IOException e) {
+				// ignore, the file is deleted anyway
+			}
+			myRandomAccessFile = null;
+		}
+		myFile.delete();
+	}
+
+	private void applyTouches() {
+		String pageId;
+		while ((pageId = myPendingTouches.poll()) != null) {
+			myPendingTouchCount.decrementAndGet();
+			final Record record = myIndex.get(pageId);
+			if (record != null)
+				record.myAccess = ++myAccessCount;
+		}
+	}
+
+	private void index(final String pageId, final Record record) {
+		record.myAccess = ++myAccessCount;
+		final Record previousRecord = myIndex.put(pageId, record);
+		if (previousRecord != null)
+			myLiveBytes -= previousRecord.myLength;
+		myLiveBytes += record.myLength;
+	}
+
+	// returns the body length, or -1 when the header is corrupt
+	private static int readHeader(final DataInputStream dataInputStream)
+			throws IOException {
+		if (dataInputStream.readInt() != RECORD_MAGIC)
+			return -1;
+		final int bodyLength = dataInputStream.readInt();
+		if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH)
+			return -1;
+		return bodyLength;
+	}
+
+	private static String readOptionalUTF(
+			final DataInputStream dataInputStream) throws IOException {
+		final String value = dataInputStream.readUTF();
+		return value.length() > 0 ? value : null;
+	}
+
+	private static void writeFileHeader(final RandomAccessFile randomAccessFile)
+			throws IOException {
+		randomAccessFile.setLength(0);
+		randomAccessFile.writeInt(FILE_MAGIC);
+		randomAccessFile.writeInt(FILE_VERSION);
+	}
+
+	private static int checksum(final byte[] bytes, final int offset,
+			final int length) {
+		final CRC32 crc32 = new CRC32();
+		crc32.update(bytes, offset, length);
+		return (int) crc32.getValue();
+	}
+
+	private static final class Record {
+
+		private final long myOffset;
+		private final int myLength;
+
+		// file order on load, bumped on every use
+		private long myAccess;
+
+		public Record(final long offset, final int length) {
+			myOffset = offset;
+			myLength = length;
+		}
+	}
+}
@@ -15,49 +15,99 @@
  */
 package net.atoom.android.tt2;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * A processed page, built once by a Builder and immutable after that apart
+ * from its expiry, so it can be shared between the loader threads and the
+ * UI thread without locking. Navigation targets and links are kept as
+ * packed PageId keys.
+ */
 public final class PageEntity {
 
 	private final static long CACHE_TIME_LONG = 300000;
 	private final static long CACHE_TIME_SHORT = 60000;
 
-	private String myPageId;
-	private String myHtmlData;
+	// rough 32-bit VM sizes, used to weigh entries in the PageCache
+	private final static int ENTITY_OVERHEAD = 64;
+	private final static int STRING_OVERHEAD = 40;
+	private final static int ARRAY_OVERHEAD = 16;
 
-	private String myNextPageId;
-	private String myNextSubPageId;
-	private String myPrevPageId;
-	private String myPrevSubPageId;
+	// a "101-0" page with its 24x40 grid, a few fast links, ten links and
+	// both validators, to size structures by the number of cached pages
+	final static int TYPICAL_RETAINED_BYTES = ENTITY_OVERHEAD
+			+ STRING_OVERHEAD + 2 * 5 + ARRAY_OVERHEAD + 24 * 40
+			+ ARRAY_OVERHEAD + 4 * 4 + ARRAY_OVERHEAD + 4 * 10 + 2
+			* (STRING_OVERHEAD + 2 * 30);
 
-	private List<String> myFastLinkPageIds = new LinkedList<String>();
-	private List<String> myLinkPageIds = new LinkedList<String>();
+	private final static int[] NO_PAGE_KEYS = new int[0];
 
-	private long myExpires;
+	private final String myPageId;
 
-	public PageEntity(final String pageId) {
-		myPageId = pageId;
-		if (pageId.startsWith("8"))
-			myExpires = System.currentTimeMillis() + CACHE_TIME_SHORT;
-		else
-			myExpires = System.currentTimeMillis() + CACHE_TIME_LONG;
+	// the 24x40 videotext grid, rendered to html on demand
+	private final byte[] myVideoText;
+
+	private final int myNextPageKey;
+	private final int myNextSubPageKey;
+	private final int myPrevPageKey;
+	private final int myPrevSubPageKey;
+
+	private final int[] myFastLinkPageKeys;
+	private final int[] myLinkedPageKeys;
+
+	private final String myETag;
+	private final String myLastModified;
+
+	// hash of what the page renders from
+	private final int myContentVersion;
+
+	private volatile long myExpires;
+
+	private PageEntity(final Builder builder) {
+		myPageId = builder.myPageId;
+		myVideoText = builder.myVideoText;
+		myNextPageKey = builder.myNextPageKey;
+		myNextSubPageKey = builder.myNextSubPageKey;
+		myPrevPageKey = builder.myPrevPageKey;
+		myPrevSubPageKey = builder.myPrevSubPageKey;
+		myFastLinkPageKeys = copyOf(builder.myFastLinkPageKeys,
+				builder.myFastLinkCount);
+		myLinkedPageKeys = copyOf(builder.myLinkedPageKeys,
+				builder.myLinkedCount);
+		myETag = builder.myETag;
+		myLastModified = builder.myLastModified;
+		myContentVersion = 31 * Arrays.hashCode(myVideoText)
+				+ Arrays.hashCode(myFastLinkPageKeys);
+		renewExpires();
 	}
 
 	public String getPageId() {
 		return myPageId;
 	}
 
-	public void setPageId(final String pageId) {
-		myPageId = pageId;
+	/**
+	 * Returns the videotext grid, which must not be modified.
+	 */
+	public byte[] getVideoText() {
+		return myVideoText;
 	}
 
-	public String getHtmlData() {
-		return myHtmlData;
+	/**
+	 * Tells whether the given page renders the same as this one.
+	 */
+	public boolean hasSameContent(final PageEntity pageEntity) {
+		return myContentVersion == pageEntity.myContentVersion
+				&& Arrays.equals(myVideoText, pageEntity.myVideoText)
+				&& Arrays.equals(myFastLinkPageKeys,
+						pageEntity.myFastLinkPageKeys);
 	}
 
-	public void setHtmlData(final String htmlData) {
-		myHtmlData = htmlData;
+	/**
+	 * Returns a hash of the content, which differs between versions of a
+	 * page that render differently.
+	 */
+	public int getContentVersion() {
+		return myContentVersion;
 	}
 
 	public long getExpires() {
@@ -68,51 +118,189 @@ public final class PageEntity {
 		myExpires = expires;
 	}
 
-	public String getNextPageId() {
-		return myNextPageId;
+	public void renewExpires() {
+		if (myPageId.startsWith("8"))
+			myExpires = System.currentTimeMillis() + CACHE_TIME_SHORT;
+		else
+			myExpires = System.currentTimeMillis() + CACHE_TIME_LONG;
 	}
 
-	public void setNextPageId(String nextPageId) {
-		myNextPageId = nextPageId;
+	public String getETag() {
+		return myETag;
 	}
 
-	public String getNextSubPageId() {
-		return myNextSubPageId;
+	public String getLastModified() {
+		return myLastModified;
 	}
 
-	public void setNextSubPageId(String nextSubPageId) {
-		myNextSubPageId = nextSubPageId;
+	public int getNextPageKey() {
+		return myNextPageKey;
 	}
 
-	public String getPrevPageId() {
-		return myPrevPageId;
+	public int getNextSubPageKey() {
+		return myNextSubPageKey;
 	}
 
-	public void setPrevPageId(String prevPageId) {
-		myPrevPageId = prevPageId;
+	public int getPrevPageKey() {
+		return myPrevPageKey;
+	}
+
+	public int getPrevSubPageKey() {
+		return myPrevSubPageKey;
+	}
+
+	public String getNextPageId() {
+		return toPageId(myNextPageKey);
+	}
+
+	public String getNextSubPageId() {
+		return toPageId(myNextSubPageKey);
+	}
+
+	public String getPrevPageId() {
+		return toPageId(myPrevPageKey);
 	}
 
 	public String getPrevSubPageId() {
-		return myPrevSubPageId;
+		return toPageId(myPrevSubPageKey);
+	}
+
+	public int getFastLinkCount() {
+		return myFastLinkPageKeys.length;
 	}
 
-	public void setPrevSubPageId(String prevSubPageId) {
-		myPrevSubPageId = prevSubPageId;
+	public int getFastLinkPageKey(final int index) {
+		return myFastLinkPageKeys[index];
 	}
 
-	public List<String> getFastLinkPageIds() {
-		return myFastLinkPageIds;
+	public int getLinkedPageCount() {
+		return myLinkedPageKeys.length;
 	}
 
-	public void addFastLinkPageId(String fastPageId) {
-		myFastLinkPageIds.add(fastPageId);
+	public int getLinkedPageKey(final int index) {
+		return myLinkedPageKeys[index];
 	}
 
-	public List<String> getLinkedPageIds() {
-		return myLinkPageIds;
+	/**
+	 * Estimates the heap retained by this entity.
+	 */
+	public int estimateRetainedBytes() {
+		return ENTITY_OVERHEAD + estimateBytes(myPageId)
+				+ (myVideoText != null ? ARRAY_OVERHEAD + myVideoText.length : 0)
+				+ ARRAY_OVERHEAD + 4 * myFastLinkPageKeys.length
+				+ ARRAY_OVERHEAD + 4 * myLinkedPageKeys.length
+				+ estimateBytes(myETag) + estimateBytes(myLastModified);
 	}
 
-	public void addLinkedPageId(String linkedPageId) {
-		myLinkPageIds.add(linkedPageId);
+	private static int estimateBytes(final String string) {
+		return string == null ? 0 : STRING_OVERHEAD + 2 * string.length();
+	}
+
+	private static String toPageId(final int pageKey) {
+		return pageKey != PageId.INVALID ? PageId.toString(pageKey) : null;
+	}
+
+	private static int[] copyOf(final int[] pageKeys, final int count) {
+		if (count == 0)
+			return NO_PAGE_KEYS;
+		final int[] copy = new int[count];
+		System.arraycopy(pageKeys, 0, copy, 0, count);
+		return copy;
+	}
+
+	public static final class Builder {
+
+		private final String myPageId;
+		private byte[] myVideoText;
+		private int myNextPageKey = PageId.INVALID;
+		private int myNextSubPageKey = PageId.INVALID;
+		private int myPrevPageKey = PageId.INVALID;
+		private int myPrevSubPageKey = PageId.INVALID;
+		private int[] myFastLinkPageKeys = new int[4];
+		private int myFastLinkCount;
+		private int[] myLinkedPageKeys = new int[16];
+		private int myLinkedCount;
+		private String myETag;
+		private String myLastModified;
+
+		public Builder(final String pageId) {
+			myPageId = pageId;
+		}
+
+		public Builder setVideoText(final byte[] videoText) {
+			myVideoText = videoText;
+			return this;
+		}
+
+		public Builder setNextPageKey(final int nextPageKey) {
+			myNextPageKey = nextPageKey;
+			return this;
+		}
+
+		public Builder setNextSubPageKey(final int nextSubPageKey) {
+			myNextSubPageKey = nextSubPageKey;
+			return this;
+		}
+
+		public Builder setPrevPageKey(final int prevPageKey) {
+			myPrevPageKey = prevPageKey;
+			return this;
+		}
+
+		public Builder setPrevSubPageKey(final int prevSubPageKey) {
+			myPrevSubPageKey = prevSubPageKey;
+			return this;
+		}
+
+		/**
+		 * Adds a fast link. An invalid page id is kept as a placeholder, the
+		 * fast links are matched to row 23 by position.
+		 */
+		public Builder addFastLinkPageKey(final int fastLinkPageKey) {
+			if (myFastLinkCount == myFastLinkPageKeys.length)
+				myFastLinkPageKeys = grow(myFastLinkPageKeys);
+			myFastLinkPageKeys[myFastLinkCount++] = fastLinkPageKey;
+			return this;
+		}
+
+		/**
+		 * Adds a link, ignored when it is not a valid page id.
+		 */
+		public Builder addLinkedPageKey(final int linkedPageKey) {
+			if (linkedPageKey == PageId.INVALID)
+				return this;
+			if (myLinkedCount == myLinkedPageKeys.length)
+				myLinkedPageKeys = grow(myLinkedPageKeys);
+			myLinkedPageKeys[myLinkedCount++] = linkedPageKey;
+			return this;
+		}
+
+		public int getFastLinkCount() {
+			return myFastLinkCount;
+		}
+
+		public int getFastLinkPageKey(final int index) {
+			return myFastLinkPageKeys[index];
+		}
+
+		public Builder setETag(final String eTag) {
+			myETag = eTag;
+			return this;
+		}
+
+		public Builder setLastModified(final String lastModified) {
+			myLastModified = lastModified;
+			return this;
+		}
+
+		public PageEntity build() {
+			return new PageEntity(this);
+		}
+
+		private static int[] grow(final int[] pageKeys) {
+			final int[] grownPageKeys = new int[pageKeys.length * 2];
+			System.arraycopy(pageKeys, 0, grownPageKeys, 0, pageKeys.length);
+			return grownPageKeys;
+		}
 	}
 }
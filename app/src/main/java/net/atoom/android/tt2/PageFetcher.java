@@ -0,0 +1,283 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+import net.atoom.android.tt2.util.CircuitBreaker;
+import net.atoom.android.tt2.util.LatencyTracker;
+import net.atoom.android.tt2.util.LogBridge;
+import net.atoom.android.tt2.util.TokenBucket;
+
+final class PageFetcher {
+
+	private static final int LATENCY_WINDOW = 100;
+	private static final int LATENCY_MIN_SAMPLES = 20;
+	private static final int HEDGE_PERCENTILE = 95;
+
+	private final PageSource myPageSource;
+	private final ByteArrayPool myByteArrayPool;
+	private final LatencyTracker myLatencyTracker = new LatencyTracker(
+			LATENCY_WINDOW, LATENCY_MIN_SAMPLES);
+	private final ExecutorService myHedgeExecutorService;
+	private final CircuitBreaker myCircuitBreaker;
+	private final TokenBucket myPreloadRateLimiter;
+	private final int myMaxRetries;
+	private final long myRetryBackoff;
+
+	public PageFetcher(final PageLoaderConfig pageLoaderConfig,
+			final int concurrency, final int foregroundConcurrency) {
+		myPageSource = createPageSource(pageLoaderConfig);
+		myPageSource.prewarm();
+		myByteArrayPool = new ByteArrayPool(concurrency);
+		// a primary and a hedge attempt per foreground fetch
+		myHedgeExecutorService = Executors
+				.newFixedThreadPool(foregroundConcurrency * 2);
+		myMaxRetries = pageLoaderConfig.getMaxRetries();
+		myRetryBackoff = pageLoaderConfig.getRetryBackoff();
+		myCircuitBreaker = new CircuitBreaker(
+				pageLoaderConfig.getFailureThreshold(),
+				pageLoaderConfig.getCircuitOpenDuration(),
+				pageLoaderConfig.getMaxCircuitOpenDuration());
+		myPreloadRateLimiter = new TokenBucket(
+				pageLoaderConfig.getPreloadRate(),
+				pageLoaderConfig.getPreloadBurst());
+	}
+
+	private static PageSource createPageSource(
+			final PageLoaderConfig pageLoaderConfig) {
+		if (pageLoaderConfig.getPageSource() != null)
+			return pageLoaderConfig.getPageSource();
+		if (pageLoaderConfig.isNioFetch()) {
+			try {
+				return new NioPageSource(pageLoaderConfig);
+			} catch (final IOException e) {
+				LogBridge.w("Falling back to HttpURLConnection: "
+						+ e.getMessage());
+			}
+		}
+		return new HttpPageSource(pageLoaderConfig);
+	}
+
+	/**
+	 * Fetches a page, conditionally when a cached entity is given. Foreground
+	 * requests are hedged and retried, preloads get a single rate limited
+	 * attempt and are shed while the upstream circuit is open. Once the open
+	 * period has passed any request, preload or not, may be the probe.
+	 */
+	public PageResponse fetch(final PageLoadRequest pageLoadRequest,
+			final PageEntity cachedPageEntity) throws IOException {
+		for (int attempt = 0;; attempt++) {
+			// a preload may be upgraded while it is running
+			final boolean foreground = pageLoadRequest.getPageLoadPriority()
+					.isForeground();
+			if (!foreground)
+				admitPreload(pageLoadRequest);
+			try {
+				return fetchGuarded(pageLoadRequest, cachedPageEntity,
+						foreground);
+			} catch (final FileNotFoundException e) {
+				throw e;
+			} catch (final IOException e) {
+				if (!pageLoadRequest.getPageLoadPriority().isForeground()
+						|| attempt >= myMaxRetries
+						|| pageLoadRequest.isAborted()
+						|| !myCircuitBreaker.isClosed())
+					throw e;
+				if (LogBridge.isLoggable())
+					LogBridge.i("Retrying " + pageLoadRequest.getPageId()
+							+ " after " + e.getClass().getName());
+				sleep(myRetryBackoff << attempt);
+			}
+		}
+	}
+
+	public void release(final PageResponse pageResponse) {
+		myByteArrayPool.release(pageResponse.getBytes());
+	}
+
+	private void admitPreload(final PageLoadRequest pageLoadRequest)
+			throws IOException {
+		if (myCircuitBreaker.isOpen())
+			throw new PageLoadException(pageLoadRequest.getPageId(),
+					PageLoadException.Reason.OFFLINE);
+		try {
+			myPreloadRateLimiter.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private PageResponse fetchGuarded(final PageLoadRequest pageLoadRequest,
+			final PageEntity cachedPageEntity, final boolean hedged)
+			throws IOException {
+		if (pageLoadRequest.isAborted())
+			throw new InterruptedIOException("Aborted "
+					+ pageLoadRequest.getPageId());
+		if (!myCircuitBreaker.allowRequest())
+			throw new PageLoadException(pageLoadRequest.getPageId(),
+					PageLoadException.Reason.OFFLINE);
+		try {
+			final PageResponse pageResponse = hedged ? fetchHedged(
+					pageLoadRequest, cachedPageEntity) : readPage(
+					pageLoadRequest, cachedPageEntity);
+			recordSuccess();
+			return pageResponse;
+		} catch (final FileNotFoundException e) {
+			// the upstream is answering
+			recordSuccess();
+			throw e;
+		} catch (final IOException e) {
+			recordFailure(pageLoadRequest, e);
+			throw e;
+		} catch (final RuntimeException e) {
+			// a probe must end, or the circuit never lets a request through
+			recordFailure(pageLoadRequest, e);
+			throw e;
+		}
+	}
+
+	private void recordFailure(final PageLoadRequest pageLoadRequest,
+			final Exception e) {
+		if (pageLoadRequest.isAborted()) {
+			myCircuitBreaker.recordCancelled();
+		} else if (myCircuitBreaker.recordFailure()) {
+			myPreloadRateLimiter.backOff();
+			LogBridge.w("Upstream circuit opened after "
+					+ e.getClass().getName());
+		}
+	}
+
+	private void recordSuccess() {
+		if (myCircuitBreaker.recordSuccess())
+			LogBridge.w("Upstream circuit closed");
+		myPreloadRateLimiter.recover();
+	}
+
+	private PageResponse fetchHedged(final PageLoadRequest pageLoadRequest,
+			final PageEntity cachedPageEntity) throws IOException {
+		final long hedgeDelay = myLatencyTracker
+				.getPercentile(HEDGE_PERCENTILE);
+		if (hedgeDelay < 0)
+			return readPage(pageLoadRequest, cachedPageEntity);
+		try {
+			return new HedgedFetch(pageLoadRequest, cachedPageEntity)
+					.await(hedgeDelay);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private PageResponse readPage(final PageLoadRequest pageLoadRequest,
+			final PageEntity cachedPageEntity) throws IOException {
+		final long start = System.currentTimeMillis();
+		final PageResponse pageResponse = myPageSource.readPage(
+				pageLoadRequest, cachedPageEntity, myByteArrayPool);
+		myLatencyTracker.record(System.currentTimeMillis() - start);
+		return pageResponse;
+	}
+
+	private void sleep(final long millis) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private final class HedgedFetch {
+
+		private final PageLoadRequest myPageLoadRequest;
+		private final PageEntity myCachedPageEntity;
+
+		// guarded by this
+		private PageResponse myPageResponse;
+		private IOException myFailure;
+		private int myRunningCount;
+
+		public HedgedFetch(final PageLoadRequest pageLoadRequest,
+				final PageEntity cachedPageEntity) {
+			myPageLoadRequest = pageLoadRequest;
+			myCachedPageEntity = cachedPageEntity;
+		}
+
+		public synchronized PageResponse await(final long hedgeDelay)
+				throws IOException, InterruptedException {
+			startAttempt();
+			final long hedgeTime = System.currentTimeMillis() + hedgeDelay;
+			long remaining = hedgeDelay;
+			while (myPageResponse == null && myRunningCount > 0
+					&& remaining > 0) {
+				wait(remaining);
+				remaining = hedgeTime - System.currentTimeMillis();
+			}
+			if (myPageResponse == null && myRunningCount > 0
+					&& !myPageLoadRequest.isAborted()) {
+				if (LogBridge.isLoggable())
+					LogBridge.i("Hedging " + myPageLoadRequest.getPageId()
+							+ " after " + hedgeDelay + "ms");
+				startAttempt();
+			}
+			while (myPageResponse == null && myRunningCount > 0)
+				wait();
+			if (myPageResponse == null)
+				throw myFailure;
+			// the slower attempt is not needed anymore
+			myPageLoadRequest.disconnectConnections();
+			return myPageResponse;
+		}
+
+		private void startAttempt() {
+			myRunningCount++;
+			myHedgeExecutorService.execute(new Runnable() {
+				@Override
+				public void run() {
+					attempt();
+				}
+			});
+		}
+
+		private void attempt() {
+			PageResponse pageResponse = null;
+			IOException failure = null;
+			try {
+				pageResponse = readPage(myPageLoadRequest, myCachedPageEntity);
+			} catch (final IOException e) {
+				failure = e;
+			}
+			synchronized (this) {
+				myRunningCount--;
+				if (pageResponse != null && myPageResponse == null) {
+					myPageResponse = pageResponse;
+					pageResponse = null;
+				} else if (failure != null) {
+					myFailure = failure;
+				}
+				notifyAll();
+			}
+			if (pageResponse != null)
+				release(pageResponse); // lost the race
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an asynchronous page load. Listeners run on the executor they
+ * were registered with, or on the completing thread when none is given.
+ */
+public final class PageFuture<T> implements Future<T> {
+
+	private final String myPageId;
+
+	// guarded by this
+	private T myValue;
+	private PageLoadException myFailure;
+	private boolean myDone;
+	private List<ListenerDispatch> myListeners = new ArrayList<ListenerDispatch>(
+			1);
+	private Runnable myCanceller;
+
+	PageFuture(final String pageId) {
+		myPageId = pageId;
+	}
+
+	public static <T> PageFuture<T> completed(final String pageId,
+			final T value) {
+		final PageFuture<T> pageFuture = new PageFuture<T>(pageId);
+		pageFuture.complete(value);
+		return pageFuture;
+	}
+
+	public static <T> PageFuture<T> failed(
+			final PageLoadException pageLoadException) {
+		final PageFuture<T> pageFuture = new PageFuture<T>(
+				pageLoadException.getPageId());
+		pageFuture.fail(pageLoadException);
+		return pageFuture;
+	}
+
+	/**
+	 * Completes with all values in order once every future succeeded, or
+	 * with the first failure.
+	 */
+	public static <T> PageFuture<List<T>> allOf(
+			final List<PageFuture<T>> pageFutures) {
+		final PageFuture<List<T>> allFuture = new PageFuture<List<T>>(null);
+		final int count = pageFutures.size();
+		final List<T> values = new ArrayList<T>(count);
+		for (int i = 0; i < count; i++)
+			values.add(null);
+		if (count == 0) {
+			allFuture.complete(values);
+			return allFuture;
+		}
+		allFuture.setCanceller(new Runnable() {
+			@Override
+			public void run() {
+				for (final PageFuture<T> pageFuture : pageFutures)
+					pageFuture.cancel(false);
+			}
+		});
+		final int[] remaining = new int[] { count };
+		for (int i = 0; i < count; i++) {
+			final int index = i;
+			pageFutures.get(i).addListener(new PageFutureListener<T>() {
+				@Override
+				public void onSuccess(final T value) {
+					synchronized (values) {
+						values.set(index, value);
+						if (--remaining[0] > 0)
+							return;
+					}
+					allFuture.complete(values);
+				}
+
+				@Override
+				public void onFailure(final PageLoadException pageLoadException) {
+					allFuture.fail(pageLoadException);
+				}
+			});
+		}
+		return allFuture;
+	}
+
+	/**
+	 * Completes with the first value to arrive, or with the last failure
+	 * when all futures failed.
+	 */
+	public static <T> PageFuture<T> firstOf(
+			final List<PageFuture<T>> pageFutures) {
+		final PageFuture<T> firstFuture = new PageFuture<T>(null);
+		final int count = pageFutures.size();
+		if (count == 0) {
+			firstFuture.fail(new PageLoadException(null,
+					PageLoadException.Reason.NOT_FOUND));
+			return firstFuture;
+		}
+		firstFuture.setCanceller(new Runnable() {
+			@Override
+			public void run() {
+				for (final PageFuture<T> pageFuture : pageFutures)
+					pageFuture.cancel(false);
+			}
+		});
+		final int[] remaining = new int[] { count };
+		for (final PageFuture<T> pageFuture : pageFutures) {
+			pageFuture.addListener(new PageFutureListener<T>() {
+				@Override
+				public void onSuccess(final T value) {
+					firstFuture.complete(value);
+				}
+
+				@Override
+				public void onFailure(final PageLoadException pageLoadException) {
+					synchronized (remaining) {
+						if (--remaining[0] > 0)
+							return;
+					}
+					firstFuture.fail(pageLoadException);
+				}
+			});
+		}
+		return firstFuture;
+	}
+
+	public String getPageId() {
+		return myPageId;
+	}
+
+	public void addListener(final PageFutureListener<? super T> listener) {
+		addListener(listener, null);
+	}
+
+	public void addListener(final PageFutureListener<? super T> listener,
+			final Executor executor) {
+		final ListenerDispatch listenerDispatch = new ListenerDispatch(
+				listener, executor);
+		synchronized (this) {
+			if (!myDone) {
+				myListeners.add(listenerDispatch);
+				return;
+			}
+		}
+		listenerDispatch.dispatch();
+	}
+
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		final Runnable canceller;
+		synchronized (this) {
+			canceller = myCanceller;
+		}
+		if (!fail(new PageLoadException(myPageId,
+				PageLoadException.Reason.CANCELLED)))
+			return false;
+		if (canceller != null)
+			canceller.run();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return myFailure != null
+				&& myFailure.getReason() == PageLoadException.Reason.CANCELLED;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return myDone;
+	}
+
+	@Override
+	public synchronized T get() throws InterruptedException,
+			ExecutionException {
+		while (!myDone)
+			wait();
+		return getResult();
+	}
+
+	@Override
+	public synchronized T get(final long timeout, final TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		final long deadline = System.currentTimeMillis()
+				+ unit.toMillis(timeout);
+		long remaining = unit.toMillis(timeout);
+		while (!myDone) {
+			if (remaining <= 0)
+				throw new TimeoutException();
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return getResult();
+	}
+
+	synchronized void setCanceller(final Runnable canceller) {
+		myCanceller = canceller;
+	}
+
+	boolean complete(final T value) {
+		final List<ListenerDispatch> listeners;
+		synchronized (this) {
+			if (myDone)
+				return false;
+			myValue = value;
+			listeners = finish();
+		}
+		for (final ListenerDispatch listenerDispatch : listeners)
+			listenerDispatch.dispatch();
+		return true;
+	}
+
+	boolean fail(final PageLoadException pageLoadException) {
+		final List<ListenerDispatch> listeners;
+		synchronized (this) {
+			if (myDone)
+				return false;
+			myFailure = pageLoadException;
+			listeners = finish();
+		}
+		for (final ListenerDispatch listenerDispatch : listeners)
+			listenerDispatch.dispatch();
+		return true;
+	}
+
+	// guarded by this
+	private List<ListenerDispatch> finish() {
+		myDone = true;
+		myCanceller = null;
+		notifyAll();
+		final List<ListenerDispatch> listeners = myListeners;
+		myListeners = null;
+		return listeners;
+	}
+
+	// guarded by this
+	private T getResult() throws ExecutionException {
+		if (myFailure == null)
+			return myValue;
+		if (myFailure.getReason() == PageLoadException.Reason.CANCELLED)
+			throw new CancellationException(myFailure.getMessage());
+		throw new ExecutionException(myFailure);
+	}
+
+	private final class ListenerDispatch implements Runnable {
+
+		private final PageFutureListener<? super T> myListener;
+		private final Executor myExecutor;
+
+		public ListenerDispatch(final PageFutureListener<? super T> listener,
+				final Executor executor) {
+			myListener = listener;
+			myExecutor = executor;
+		}
+
+		public void dispatch() {
+			if (myExecutor == null)
+				run();
+			else
+				myExecutor.execute(this);
+		}
+
+		@Override
+		public void run() {
+			final T value;
+			final PageLoadException failure;
+			synchronized (PageFuture.this) {
+				value = myValue;
+				failure = myFailure;
+			}
+			if (failure == null)
+				myListener.onSuccess(value);
+			else
+				myListener.onFailure(failure);
+		}
+	}
+}
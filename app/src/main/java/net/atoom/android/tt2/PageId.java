@@ -0,0 +1,99 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+/**
+ * Page identity packed into an int: magazine, page within the magazine and
+ * subpage, so ids parse, compare and hash without allocating. A page id
+ * like "101-2" or "101/2" packs to magazine 1, page 1, subpage 2; a bare
+ * "101" is subpage 0.
+ */
+public final class PageId {
+
+	public static final int INVALID = -1;
+
+	private static final int MAX_SUBPAGE = 0xff;
+
+	private PageId() {
+	}
+
+	public static int of(final int page, final int subPage) {
+		if (page < 0 || page > 999 || subPage < 0 || subPage > MAX_SUBPAGE)
+			return INVALID;
+		return (page / 100) << 16 | (page % 100) << 8 | subPage;
+	}
+
+	/**
+	 * Parses a page id of three digits optionally followed by '-' or '/' and
+	 * the subpage number, or returns INVALID.
+	 */
+	public static int parse(final CharSequence pageId) {
+		if (pageId == null)
+			return INVALID;
+		final int length = pageId.length();
+		if (length < 3)
+			return INVALID;
+		int page = 0;
+		for (int i = 0; i < 3; i++) {
+			final int digit = Character.digit(pageId.charAt(i), 10);
+			if (digit < 0)
+				return INVALID;
+			page = page * 10 + digit;
+		}
+		if (length == 3)
+			return of(page, 0);
+		final char separator = pageId.charAt(3);
+		if ((separator != '-' && separator != '/') || length == 4
+				|| length > 7)
+			return INVALID;
+		int subPage = 0;
+		for (int i = 4; i < length; i++) {
+			final int digit = Character.digit(pageId.charAt(i), 10);
+			if (digit < 0)
+				return INVALID;
+			subPage = subPage * 10 + digit;
+		}
+		return of(page, subPage);
+	}
+
+	public static int getMagazine(final int pageKey) {
+		return pageKey >>> 16;
+	}
+
+	public static int getPage(final int pageKey) {
+		return (pageKey >>> 16) * 100 + ((pageKey >>> 8) & 0xff);
+	}
+
+	public static int getSubPage(final int pageKey) {
+		return pageKey & MAX_SUBPAGE;
+	}
+
+	/**
+	 * Appends the page id in its "101-2" form.
+	 */
+	public static StringBuilder appendTo(final int pageKey,
+			final StringBuilder stringBuilder) {
+		final int page = getPage(pageKey);
+		stringBuilder.append((char) ('0' + page / 100))
+				.append((char) ('0' + page / 10 % 10))
+				.append((char) ('0' + page % 10)).append('-');
+		return stringBuilder.append(getSubPage(pageKey));
+	}
+
+	public static String toString(final int pageKey) {
+		return appendTo(pageKey, new StringBuilder(7)).toString();
+	}
+}
@@ -8,6 +8,10 @@ public class PageIdUtil {
 		if (pageId == null || "".equals(pageId)) {
 			pageId = "101-0";
 		}
+		// the canonical form, so "101/01" and "101-1" are the same page
+		final int pageKey = PageId.parse(pageId);
+		if (pageKey != PageId.INVALID)
+			return PageId.toString(pageKey);
 		pageId = pageId.replace("/", "-");
 		if (pageId.indexOf("-") == -1)
 			return pageId + "-0";
@@ -0,0 +1,74 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+
+/**
+ * Failure of a page load with its cause reduced to what a caller can act
+ * upon.
+ */
+public final class PageLoadException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Reason {
+		NOT_FOUND, TIMEOUT, OFFLINE, CANCELLED, FAILED
+	}
+
+	private final String myPageId;
+	private final Reason myReason;
+
+	public PageLoadException(final String pageId, final Reason reason) {
+		super(reason + " loading " + pageId);
+		myPageId = pageId;
+		myReason = reason;
+	}
+
+	public PageLoadException(final String pageId, final Reason reason,
+			final Throwable cause) {
+		this(pageId, reason);
+		initCause(cause);
+	}
+
+	public String getPageId() {
+		return myPageId;
+	}
+
+	public Reason getReason() {
+		return myReason;
+	}
+
+	static PageLoadException from(final String pageId, final IOException e) {
+		if (e instanceof PageLoadException)
+			return (PageLoadException) e;
+		if (e instanceof FileNotFoundException)
+			return new PageLoadException(pageId, Reason.NOT_FOUND, e);
+		if (e instanceof UnknownHostException
+				|| e instanceof ConnectException
+				|| e instanceof NoRouteToHostException)
+			return new PageLoadException(pageId, Reason.OFFLINE, e);
+		// SocketTimeoutException is an InterruptedIOException
+		if (e instanceof InterruptedIOException)
+			return new PageLoadException(pageId, Reason.TIMEOUT, e);
+		return new PageLoadException(pageId, Reason.FAILED, e);
+	}
+}
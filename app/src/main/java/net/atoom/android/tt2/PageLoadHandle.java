@@ -0,0 +1,157 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.util.concurrent.Executor;
+
+import net.atoom.android.tt2.util.LogBridge;
+
+/**
+ * A page load as seen by one caller. The handle is also the Runnable that
+ * delivers its result on the caller's executor, so a delivery allocates
+ * nothing.
+ */
+final class PageLoadHandle implements Runnable {
+
+	private final PageLoader myPageLoader;
+	private final String myPageId;
+	private final PageLoadCompletionHandler myPageLoadCompletionHandler;
+	private final Executor myExecutor;
+	private final boolean myStaleAllowed;
+	private volatile boolean myCancelled;
+
+	// guarded by this
+	private PageEntity myStalePageEntity;
+
+	// the delivery waiting for the executor, guarded by this
+	private boolean myDeliveryPending;
+	private PageEntity myPendingPageEntity;
+	private PageLoadException myPendingPageLoadException;
+
+	public PageLoadHandle(final PageLoader pageLoader, final String pageId,
+			final PageLoadCompletionHandler pageLoadCompletionHandler,
+			final Executor executor) {
+		this(pageLoader, pageId, pageLoadCompletionHandler, executor, true);
+	}
+
+	public PageLoadHandle(final PageLoader pageLoader, final String pageId,
+			final PageLoadCompletionHandler pageLoadCompletionHandler,
+			final Executor executor, final boolean staleAllowed) {
+		myPageLoader = pageLoader;
+		myPageId = pageId;
+		myPageLoadCompletionHandler = pageLoadCompletionHandler;
+		myExecutor = executor;
+		myStaleAllowed = staleAllowed;
+	}
+
+	public String getPageId() {
+		return myPageId;
+	}
+
+	public PageLoadCompletionHandler getPageLoadCompletionHandler() {
+		return myPageLoadCompletionHandler;
+	}
+
+	public boolean isCancelled() {
+		return myCancelled;
+	}
+
+	public void cancel() {
+		if (myCancelled)
+			return;
+		myCancelled = true;
+		myPageLoader.cancelPageLoad(this);
+	}
+
+	/**
+	 * Hands an outdated copy to the completion handler ahead of the result,
+	 * which is then only delivered when its content differs. Ignored when
+	 * the handle does not take stale pages or already got one.
+	 */
+	void completeStale(final PageEntity pageEntity) {
+		synchronized (this) {
+			if (!myStaleAllowed || myStalePageEntity != null)
+				return;
+			myStalePageEntity = pageEntity;
+		}
+		dispatch(pageEntity, null);
+	}
+
+	/**
+	 * Hands the result to the completion handler on the handle's executor,
+	 * unless the load was cancelled before it got there.
+	 */
+	void complete(final PageEntity pageEntity,
+			final PageLoadException pageLoadException) {
+		final PageEntity stalePageEntity;
+		synchronized (this) {
+			stalePageEntity = myStalePageEntity;
+		}
+		// the stale copy stands when the refresh failed or changed nothing
+		if (stalePageEntity != null
+				&& (pageEntity == null || pageEntity == stalePageEntity || pageEntity
+						.hasSameContent(stalePageEntity)))
+			return;
+		dispatch(pageEntity, pageLoadException);
+	}
+
+	private void dispatch(final PageEntity pageEntity,
+			final PageLoadException pageLoadException) {
+		if (myExecutor == null) {
+			deliver(pageEntity, pageLoadException);
+			return;
+		}
+		synchronized (this) {
+			// a result that overtakes the stale copy replaces it
+			myPendingPageEntity = pageEntity;
+			myPendingPageLoadException = pageLoadException;
+			if (myDeliveryPending)
+				return;
+			myDeliveryPending = true;
+		}
+		myExecutor.execute(this);
+	}
+
+	@Override
+	public void run() {
+		final PageEntity pageEntity;
+		final PageLoadException pageLoadException;
+		synchronized (this) {
+			pageEntity = myPendingPageEntity;
+			pageLoadException = myPendingPageLoadException;
+			myPendingPageEntity = null;
+			myPendingPageLoadException = null;
+			myDeliveryPending = false;
+		}
+		if (!myCancelled)
+			deliver(pageEntity, pageLoadException);
+	}
+
+	private void deliver(final PageEntity pageEntity,
+			final PageLoadException pageLoadException) {
+		try {
+			if (pageEntity == null
+					&& myPageLoadCompletionHandler instanceof PageLoadFailureHandler)
+				((PageLoadFailureHandler) myPageLoadCompletionHandler)
+						.pageLoadFailed(pageLoadException);
+			else
+				myPageLoadCompletionHandler.pageLoadCompleted(pageEntity);
+		} catch (final RuntimeException e) {
+			LogBridge.w("Received an Exception " + e.getClass().getName()
+					+ " " + e.getCause());
+		}
+	}
+}
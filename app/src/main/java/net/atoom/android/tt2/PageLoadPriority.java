@@ -16,5 +16,24 @@
 package net.atoom.android.tt2;
 
 enum PageLoadPriority {
-	HIGH, LOW
+
+	VISIBLE(0), NEIGHBOUR(2000), FASTLINK(5000), LINK(10000), BACKGROUND(30000);
+
+	private final long myAgingDelay;
+
+	private PageLoadPriority(final long agingDelay) {
+		myAgingDelay = agingDelay;
+	}
+
+	/**
+	 * Time a request of this class waits before it ranks equal to a fresh
+	 * VISIBLE request, so lower classes age instead of starving.
+	 */
+	public long getAgingDelay() {
+		return myAgingDelay;
+	}
+
+	public boolean isForeground() {
+		return this == VISIBLE;
+	}
 }
\ No newline at end of file
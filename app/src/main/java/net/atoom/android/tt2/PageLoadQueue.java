@@ -0,0 +1,77 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.util.PriorityQueue;
+
+final class PageLoadQueue {
+
+	private final PriorityQueue<PageLoadRequest> myQueue = new PriorityQueue<PageLoadRequest>();
+	private final int myCapacity;
+
+	public PageLoadQueue(final int capacity) {
+		myCapacity = capacity;
+	}
+
+	/**
+	 * Returns the request that was dropped to stay within capacity, which can
+	 * be the offered request itself, or null if nothing was dropped.
+	 */
+	public synchronized PageLoadRequest offer(
+			final PageLoadRequest pageLoadRequest) {
+		myQueue.offer(pageLoadRequest);
+		PageLoadRequest droppedRequest = null;
+		if (myQueue.size() > myCapacity) {
+			droppedRequest = findLeastValuable();
+			if (droppedRequest != null)
+				myQueue.remove(droppedRequest);
+		}
+		if (droppedRequest != pageLoadRequest)
+			notify();
+		return droppedRequest;
+	}
+
+	public synchronized PageLoadRequest take() throws InterruptedException {
+		while (myQueue.isEmpty())
+			wait();
+		return myQueue.poll();
+	}
+
+	public synchronized boolean remove(final PageLoadRequest pageLoadRequest) {
+		return myQueue.remove(pageLoadRequest);
+	}
+
+	// lowest priority first, then the oldest speculation, never one that is
+	// still awaited by a handler
+	private PageLoadRequest findLeastValuable() {
+		PageLoadRequest leastValuable = null;
+		for (final PageLoadRequest pageLoadRequest : myQueue) {
+			if (!pageLoadRequest.getPageLoadHandles().isEmpty())
+				continue;
+			if (leastValuable == null) {
+				leastValuable = pageLoadRequest;
+				continue;
+			}
+			final int priorityOrder = pageLoadRequest.getPageLoadPriority()
+					.compareTo(leastValuable.getPageLoadPriority());
+			if (priorityOrder > 0
+					|| (priorityOrder == 0 && pageLoadRequest.getTimestamp() < leastValuable
+							.getTimestamp()))
+				leastValuable = pageLoadRequest;
+		}
+		return leastValuable;
+	}
+}
@@ -15,46 +15,154 @@
  */
 package net.atoom.android.tt2;
 
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 class PageLoadRequest implements Comparable<PageLoadRequest> {
 
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
 	private final String myPageId;
+	private final int myPageKey;
 	private final long myTimestamp;
-	private final boolean myPreload;
-	private final PageLoadPriority myPageLoadPriority;
-	private final PageLoadCompletionHandler myPageLoadCompletionHandler;
+	private final long mySequence;
+	private boolean myPreload;
+	private boolean mySpeculative;
+	private int myGeneration;
+	private volatile PageLoadPriority myPageLoadPriority;
+	private final List<PageLoadHandle> myPageLoadHandles = new ArrayList<PageLoadHandle>(
+			1);
+	private final List<HttpURLConnection> myConnections = new ArrayList<HttpURLConnection>(
+			2);
+	private volatile boolean myAborted;
+	private volatile PageLoadException myFailure;
 
 	public PageLoadRequest(String pageId, PageLoadPriority pageLoadPriority,
-			PageLoadCompletionHandler pageLoadCompletionHandler) {
-		this(pageId, pageLoadPriority, pageLoadCompletionHandler, true);
+			boolean preload, int generation) {
+		this(pageId, pageLoadPriority, preload, generation, System
+				.currentTimeMillis());
 	}
 
-	public PageLoadRequest(String pageId, PageLoadPriority pageLoadPriority,
-			PageLoadCompletionHandler pageLoadCompletionHandler, boolean preload) {
+	// takes the time the request was made, for tests of the aging order
+	PageLoadRequest(String pageId, PageLoadPriority pageLoadPriority,
+			boolean preload, int generation, long timestamp) {
 		myPageId = pageId;
-		myTimestamp = System.currentTimeMillis();
+		myPageKey = PageId.parse(pageId);
+		myTimestamp = timestamp;
+		mySequence = SEQUENCE.incrementAndGet();
 		myPreload = preload;
+		mySpeculative = !preload;
+		myGeneration = generation;
 		myPageLoadPriority = pageLoadPriority;
-		myPageLoadCompletionHandler = pageLoadCompletionHandler;
 	}
 
 	public String getPageId() {
 		return myPageId;
 	}
 
+	public int getPageKey() {
+		return myPageKey;
+	}
+
 	public PageLoadPriority getPageLoadPriority() {
 		return myPageLoadPriority;
 	}
 
+	public void setPageLoadPriority(PageLoadPriority pageLoadPriority) {
+		myPageLoadPriority = pageLoadPriority;
+	}
+
 	public long getTimestamp() {
 		return myTimestamp;
 	}
+
+	public long getDeadline() {
+		return myTimestamp + myPageLoadPriority.getAgingDelay();
+	}
 	
 	public boolean isPreload() {
 		return myPreload;
 	}
 
-	public PageLoadCompletionHandler getPageLoadCompletionHandler() {
-		return myPageLoadCompletionHandler;
+	public void setPreload(boolean preload) {
+		myPreload = preload;
+	}
+
+	public boolean isSpeculative() {
+		return mySpeculative;
+	}
+
+	public void setSpeculative(boolean speculative) {
+		mySpeculative = speculative;
+	}
+
+	public int getGeneration() {
+		return myGeneration;
+	}
+
+	public void setGeneration(int generation) {
+		myGeneration = generation;
+	}
+
+	public List<PageLoadHandle> getPageLoadHandles() {
+		return myPageLoadHandles;
+	}
+
+	public void addPageLoadHandle(PageLoadHandle pageLoadHandle) {
+		myPageLoadHandles.add(pageLoadHandle);
+	}
+
+	public boolean removePageLoadHandle(PageLoadHandle pageLoadHandle) {
+		return myPageLoadHandles.remove(pageLoadHandle);
+	}
+
+	public void addConnection(HttpURLConnection connection) {
+		synchronized (myConnections) {
+			myConnections.add(connection);
+		}
+		if (myAborted)
+			connection.disconnect();
+	}
+
+	public void removeConnection(HttpURLConnection connection) {
+		synchronized (myConnections) {
+			myConnections.remove(connection);
+		}
+	}
+
+	/**
+	 * Disconnects all connections currently reading for this request.
+	 */
+	public void disconnectConnections() {
+		final List<HttpURLConnection> connections;
+		synchronized (myConnections) {
+			connections = new ArrayList<HttpURLConnection>(myConnections);
+		}
+		for (final HttpURLConnection connection : connections)
+			connection.disconnect();
+	}
+
+	public PageLoadException getFailure() {
+		return myFailure;
+	}
+
+	public void setFailure(PageLoadException failure) {
+		myFailure = failure;
+	}
+
+	public boolean isAborted() {
+		return myAborted;
+	}
+
+	public void abort() {
+		myAborted = true;
+		disconnectConnections();
+	}
+
+	public void resetAbort() {
+		myAborted = false;
 	}
 
 	@Override
@@ -72,15 +180,12 @@ class PageLoadRequest implements Comparable<PageLoadRequest> {
 
 	@Override
 	public int compareTo(PageLoadRequest other) {
-		if (getPageLoadPriority() == PageLoadPriority.HIGH) {
-			if (other.getPageLoadPriority() == PageLoadPriority.LOW) {
-				return -1;
-			}
-			return (int) (getTimestamp() - other.getTimestamp());
-		}
-		if (other.getPageLoadPriority() == PageLoadPriority.HIGH) {
-			return 1;
-		}
-		return (int) (getTimestamp() - other.getTimestamp());
+		final long deadline = getDeadline();
+		final long otherDeadline = other.getDeadline();
+		if (deadline != otherDeadline)
+			return deadline < otherDeadline ? -1 : 1;
+		if (mySequence != other.mySequence)
+			return mySequence < other.mySequence ? -1 : 1;
+		return 0;
 	}
 }
\ No newline at end of file
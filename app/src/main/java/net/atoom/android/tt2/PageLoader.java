@@ -15,172 +15,703 @@
  */
 package net.atoom.android.tt2;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.PriorityBlockingQueue;
 
-import net.atoom.android.tt2.util.LRUCache;
+import net.atoom.android.tt2.util.IntObjectMap;
 import net.atoom.android.tt2.util.LogBridge;
 
 public final class PageLoader {
 
-	private static final String BASE_URL = "http://teletekst-data.nos.nl/page/";
+	private static final int FOREGROUND_WORKER_COUNT = 2;
+	// the page on display and the one before it stay hot
+	private static final int HTML_HOT_PAGES = 2;
 
-	private final LRUCache<String, PageEntity> myPageCache = new LRUCache<String, PageEntity>(
-			100);
+	private final PageLoadQueue myForegroundRequests = new PageLoadQueue(
+			Integer.MAX_VALUE);
+	private final PageLoadQueue myLoadRequests;
+	private final IntObjectMap<PageLoadRequest> myPendingRequests = new IntObjectMap<PageLoadRequest>(
+			64);
+	private final Set<PageLoadRequest> myRunningPreloads = new HashSet<PageLoadRequest>();
+	private final ExecutorService myExecutorService;
+	private final PageCache myPageCache;
+	private final PageDiskCache myPageDiskCache;
+	private final HtmlCache myHtmlCache;
+	private final PageFetcher myPageFetcher;
+	private final int myPreloadBudget;
+	private final long myStaleWindow;
 
-	private final PriorityBlockingQueue<PageLoadRequest> myLoadRequests = new PriorityBlockingQueue<PageLoadRequest>();
-	private final ExecutorService myExecutorService = Executors
-			.newFixedThreadPool(1);
-
-	private final PageProcessor myPageProcessor = new PageProcessor();
-
-	private final byte[] myReadBuffer = new byte[2048];
+	// guarded by myPendingRequests
+	private int myForegroundCount = 0;
+	private int myGeneration = 0;
 
 	public PageLoader() {
-		myExecutorService.submit(new PageLoadRunner());
+		this(new PageLoaderConfig());
+	}
+
+	public PageLoader(final PageLoaderConfig pageLoaderConfig) {
+		final int workerCount = pageLoaderConfig.getWorkerCount();
+		myLoadRequests = new PageLoadQueue(
+				pageLoaderConfig.getPreloadCapacity());
+		myPreloadBudget = pageLoaderConfig.getPreloadBudget();
+		myStaleWindow = pageLoaderConfig.getStaleWindow();
+		myPageCache = new PageCache(pageLoaderConfig.getCacheBudget());
+		myHtmlCache = new HtmlCache(HTML_HOT_PAGES,
+				pageLoaderConfig.getHtmlCacheBudget());
+		myPageDiskCache = pageLoaderConfig.getDiskCacheDir() != null ? PageDiskCache
+				.forDirectory(pageLoaderConfig.getDiskCacheDir(),
+						pageLoaderConfig.getDiskCacheSize()) : null;
+		myPageFetcher = new PageFetcher(pageLoaderConfig, workerCount
+				+ FOREGROUND_WORKER_COUNT, FOREGROUND_WORKER_COUNT);
+		myExecutorService = Executors.newFixedThreadPool(workerCount
+				+ FOREGROUND_WORKER_COUNT);
+		for (int i = 0; i < FOREGROUND_WORKER_COUNT; i++) {
+			myExecutorService.submit(new PageLoadRunner(myForegroundRequests,
+					true));
+		}
+		for (int i = 0; i < workerCount; i++) {
+			myExecutorService.submit(new PageLoadRunner(myLoadRequests, false));
+		}
 	}
 
-	public void loadPage(String pageId,
+	public PageLoadHandle loadPage(final String pageId,
 			final PageLoadPriority pageLoadPriority,
 			final PageLoadCompletionHandler pageLoadCompletionHandler) {
+		return loadPage(pageId, pageLoadPriority, pageLoadCompletionHandler,
+				null);
+	}
+
+	/**
+	 * Loads a page and calls the handler on the given executor, or on the
+	 * loading thread when it is null. A handler that is a
+	 * PageLoadFailureHandler is told why a load failed.
+	 */
+	public PageLoadHandle loadPage(final String pageId,
+			final PageLoadPriority pageLoadPriority,
+			final PageLoadCompletionHandler pageLoadCompletionHandler,
+			final Executor executor) {
+		return loadPage(pageId, pageLoadPriority, pageLoadCompletionHandler,
+				executor, true);
+	}
+
+	/**
+	 * Loads a page like loadPage, but never answers with a stale copy: an
+	 * expired page is revalidated first and the handler is called once.
+	 */
+	public PageLoadHandle reloadPage(final String pageId,
+			final PageLoadPriority pageLoadPriority,
+			final PageLoadCompletionHandler pageLoadCompletionHandler,
+			final Executor executor) {
+		return loadPage(pageId, pageLoadPriority, pageLoadCompletionHandler,
+				executor, false);
+	}
+
+	private PageLoadHandle loadPage(String pageId,
+			final PageLoadPriority pageLoadPriority,
+			final PageLoadCompletionHandler pageLoadCompletionHandler,
+			final Executor executor, final boolean staleAllowed) {
 
 		if (pageId == null || pageId.equals(""))
-			return;
-		pageId = PageIdUtil.normalize(pageId);
+			return null;
+		final int pageKey = PageId.parse(pageId);
+		if (pageKey == PageId.INVALID) {
+			final PageLoadHandle pageLoadHandle = new PageLoadHandle(this,
+					pageId, pageLoadCompletionHandler, executor);
+			pageLoadHandle.complete(null, new PageLoadException(pageId,
+					PageLoadException.Reason.NOT_FOUND));
+			return pageLoadHandle;
+		}
 
-		final PageEntity pageEntity = myPageCache.get(pageId);
-		if (pageEntity != null
-				&& System.currentTimeMillis() < pageEntity.getExpires()) {
+		final PageEntity pageEntity = myPageCache.get(pageKey);
+		if (pageEntity == null) {
+			pageId = PageId.toString(pageKey);
+		} else {
+			pageId = pageEntity.getPageId();
+			if (myPageDiskCache != null)
+				myPageDiskCache.touch(pageId);
+		}
+		final PageLoadHandle pageLoadHandle = new PageLoadHandle(this, pageId,
+				pageLoadCompletionHandler, executor, staleAllowed);
+		final long now = System.currentTimeMillis();
+		if (pageEntity != null && now < pageEntity.getExpires()) {
 
 			if (LogBridge.isLoggable())
 				LogBridge.i("Returning cached entity: " + pageId);
-			pageLoadCompletionHandler.pageLoadCompleted(pageEntity);
-			preLoadReferencedPages(pageEntity);
-			return;
+			pageLoadHandle.complete(pageEntity, null);
+			preLoadReferencedPages(pageEntity, getGeneration());
+			return pageLoadHandle;
 		}
 
-		if (LogBridge.isLoggable())
-			LogBridge.i("Scheduling pageload request: " + pageId);
-		final PageLoadRequest pageLoadRequest = new PageLoadRequest(pageId,
-				pageLoadPriority, pageLoadCompletionHandler);
-		myLoadRequests.offer(pageLoadRequest);
+		if (pageEntity != null && staleAllowed
+				&& now < pageEntity.getExpires() + myStaleWindow) {
+
+			if (LogBridge.isLoggable())
+				LogBridge.i("Returning stale entity: " + pageId);
+			pageLoadHandle.completeStale(pageEntity);
+			preLoadReferencedPages(pageEntity, getGeneration());
+
+			// revalidate in the background, report only changed content
+			scheduleRequest(pageKey,
+					pageLoadPriority.isForeground() ? PageLoadPriority.NEIGHBOUR
+							: pageLoadPriority, pageLoadHandle, getGeneration());
+			return pageLoadHandle;
+		}
+
+		// a page kept on disk is restored by the loader thread
+		scheduleRequest(pageKey, pageLoadPriority, pageLoadHandle,
+				getGeneration());
+		return pageLoadHandle;
+	}
+
+	/**
+	 * Loads the given pages in parallel, the handler receives them in the
+	 * same order with null for pages that failed to load.
+	 */
+	public PageBatchHandle loadPages(final List<String> pageIds,
+			final PageLoadPriority pageLoadPriority,
+			final PageBatchCompletionHandler pageBatchCompletionHandler) {
+		return PageBatchHandle.forPages(this, pageIds, pageLoadPriority,
+				pageBatchCompletionHandler);
 	}
 
-	private void preLoadReferencedPages(final PageEntity pageEntity) {
-		preLoadPage(pageEntity.getNextPageId());
-		preLoadPage(pageEntity.getPrevPageId());
-		preLoadPage(pageEntity.getNextSubPageId());
-		preLoadPage(pageEntity.getPrevSubPageId());
-		for (final String fastLinkPageId : pageEntity.getFastLinkPageIds()) {
-			preLoadPage(fastLinkPageId);
+	/**
+	 * Loads the given page and all subpages following it, the handler
+	 * receives them in subpage order.
+	 */
+	public PageBatchHandle loadSubPages(final String pageId,
+			final PageLoadPriority pageLoadPriority,
+			final PageBatchCompletionHandler pageBatchCompletionHandler) {
+		return PageBatchHandle.forSubPages(this, pageId, pageLoadPriority,
+				pageBatchCompletionHandler);
+	}
+
+	/**
+	 * Loads a page, the returned future fails with a PageLoadException
+	 * telling why the page could not be loaded.
+	 */
+	public PageFuture<PageEntity> loadPageAsync(final String pageId,
+			final PageLoadPriority pageLoadPriority) {
+		final PageFuture<PageEntity> pageFuture = new PageFuture<PageEntity>(
+				pageId);
+		final PageLoadHandle pageLoadHandle = loadPage(pageId,
+				pageLoadPriority, new PageLoadFailureHandler() {
+					@Override
+					public void pageLoadCompleted(final PageEntity pageEntity) {
+						pageFuture.complete(pageEntity);
+					}
+
+					@Override
+					public void pageLoadFailed(
+							final PageLoadException pageLoadException) {
+						pageFuture.fail(pageLoadException);
+					}
+				});
+		if (pageLoadHandle == null) {
+			pageFuture.fail(new PageLoadException(pageId,
+					PageLoadException.Reason.NOT_FOUND));
+			return pageFuture;
 		}
-		for (final String linkedPageId : pageEntity.getLinkedPageIds()) {
-			preLoadPage(linkedPageId);
+		pageFuture.setCanceller(new Runnable() {
+			@Override
+			public void run() {
+				pageLoadHandle.cancel();
+			}
+		});
+		return pageFuture;
+	}
+
+	public PageFuture<List<PageEntity>> loadPagesAsync(
+			final List<String> pageIds, final PageLoadPriority pageLoadPriority) {
+		final List<PageFuture<PageEntity>> pageFutures = new ArrayList<PageFuture<PageEntity>>(
+				pageIds.size());
+		for (final String pageId : pageIds)
+			pageFutures.add(loadPageAsync(pageId, pageLoadPriority));
+		return PageFuture.allOf(pageFutures);
+	}
+
+	/**
+	 * Returns the html of the page, recently shown pages are served from the
+	 * html cache as long as their content is unchanged.
+	 */
+	public String getHtmlData(final PageEntity pageEntity) {
+		final int pageKey = PageId.parse(pageEntity.getPageId());
+		final int contentVersion = pageEntity.getContentVersion();
+		String htmlData = myHtmlCache.get(pageKey, contentVersion);
+		if (htmlData == null) {
+			htmlData = PageProcessor.render(pageEntity);
+			myHtmlCache.put(pageKey, contentVersion, htmlData);
 		}
+		return htmlData;
 	}
 
-	private void preLoadPage(String pageId) {
-		if (pageId == null || pageId.equals(""))
-			return;
-		pageId = PageIdUtil.normalize(pageId);
-		final PageEntity pageEntity = myPageCache.get(pageId);
+	public void startGeneration() {
+		synchronized (myPendingRequests) {
+			myGeneration++;
+			if (LogBridge.isLoggable())
+				LogBridge.i("Starting generation " + myGeneration);
+			final List<PageLoadRequest> pageLoadRequests = new ArrayList<PageLoadRequest>(
+					myPendingRequests.size());
+			for (int slot = 0; slot < myPendingRequests.capacity(); slot++) {
+				final PageLoadRequest pageLoadRequest = myPendingRequests
+						.valueAt(slot);
+				if (pageLoadRequest != null)
+					pageLoadRequests.add(pageLoadRequest);
+			}
+			for (final PageLoadRequest pageLoadRequest : pageLoadRequests)
+				dropIfUnwanted(pageLoadRequest);
+		}
+	}
+
+	/**
+	 * Moves the pending load of the given handle up to the given priority,
+	 * for a load that turned out to be more urgent than it was asked for.
+	 */
+	void raisePriority(final PageLoadHandle pageLoadHandle,
+			final PageLoadPriority pageLoadPriority) {
+		synchronized (myPendingRequests) {
+			final PageLoadRequest pageLoadRequest = myPendingRequests
+					.get(PageId.parse(pageLoadHandle.getPageId()));
+			if (pageLoadRequest != null
+					&& pageLoadRequest.getPageLoadHandles().contains(
+							pageLoadHandle))
+				raisePriority(pageLoadRequest, pageLoadPriority);
+		}
+	}
+
+	void cancelPageLoad(final PageLoadHandle pageLoadHandle) {
+		synchronized (myPendingRequests) {
+			final PageLoadRequest pageLoadRequest = myPendingRequests
+					.get(PageId.parse(pageLoadHandle.getPageId()));
+			if (pageLoadRequest != null
+					&& pageLoadRequest.removePageLoadHandle(pageLoadHandle)) {
+				dropIfUnwanted(pageLoadRequest);
+			}
+		}
+	}
+
+	private int getGeneration() {
+		synchronized (myPendingRequests) {
+			return myGeneration;
+		}
+	}
+
+	private void preLoadReferencedPages(final PageEntity pageEntity,
+			final int generation) {
+		// most valuable first, the budget cuts off the tail of long link lists
+		int budget = myPreloadBudget;
+		budget -= preLoadPage(pageEntity.getNextPageKey(),
+				PageLoadPriority.NEIGHBOUR, generation);
+		budget -= preLoadPage(pageEntity.getPrevPageKey(),
+				PageLoadPriority.NEIGHBOUR, generation);
+		budget -= preLoadPage(pageEntity.getNextSubPageKey(),
+				PageLoadPriority.NEIGHBOUR, generation);
+		budget -= preLoadPage(pageEntity.getPrevSubPageKey(),
+				PageLoadPriority.NEIGHBOUR, generation);
+		for (int i = 0; i < pageEntity.getFastLinkCount(); i++) {
+			if (budget <= 0)
+				return;
+			budget -= preLoadPage(pageEntity.getFastLinkPageKey(i),
+					PageLoadPriority.FASTLINK, generation);
+		}
+		for (int i = 0; i < pageEntity.getLinkedPageCount(); i++) {
+			if (budget <= 0)
+				return;
+			budget -= preLoadPage(pageEntity.getLinkedPageKey(i),
+					PageLoadPriority.LINK, generation);
+		}
+	}
+
+	/**
+	 * Crawls one step further along the page chain from a preloaded
+	 * neighbour, the user paging on finds the next page already loaded.
+	 * Crawled pages do not crawl themselves.
+	 */
+	private void crawlNeighbourPages(final PageEntity pageEntity,
+			final int generation) {
+		preLoadPage(pageEntity.getNextPageKey(), PageLoadPriority.BACKGROUND,
+				generation);
+		preLoadPage(pageEntity.getPrevPageKey(), PageLoadPriority.BACKGROUND,
+				generation);
+		preLoadPage(pageEntity.getNextSubPageKey(),
+				PageLoadPriority.BACKGROUND, generation);
+		preLoadPage(pageEntity.getPrevSubPageKey(),
+				PageLoadPriority.BACKGROUND, generation);
+	}
+
+	private int preLoadPage(final int pageKey,
+			final PageLoadPriority pageLoadPriority, final int generation) {
+		if (pageKey == PageId.INVALID)
+			return 0;
+		final PageEntity pageEntity = myPageCache.peek(pageKey);
 		if (pageEntity != null
 				&& System.currentTimeMillis() < pageEntity.getExpires())
+			return 0;
+
+		return scheduleRequest(pageKey, pageLoadPriority, null, generation) ? 1
+				: 0;
+	}
+
+	private boolean scheduleRequest(final int pageKey,
+			final PageLoadPriority pageLoadPriority,
+			final PageLoadHandle pageLoadHandle, final int generation) {
+
+		synchronized (myPendingRequests) {
+			if (pageLoadHandle == null && generation != myGeneration) {
+				if (LogBridge.isLoggable())
+					LogBridge.i("Dropping obsolete pageload request: "
+							+ PageId.toString(pageKey));
+				return false;
+			}
+
+			PageLoadRequest pageLoadRequest = myPendingRequests.get(pageKey);
+			if (pageLoadRequest != null) {
+				// share the queued or running fetch for this page
+				if (LogBridge.isLoggable())
+					LogBridge.i("Coalescing pageload request: "
+							+ pageLoadRequest.getPageId());
+				pageLoadRequest.setGeneration(myGeneration);
+				if (pageLoadHandle != null) {
+					pageLoadRequest.addPageLoadHandle(pageLoadHandle);
+					pageLoadRequest.setPreload(true);
+				} else {
+					pageLoadRequest.setSpeculative(true);
+				}
+				raisePriority(pageLoadRequest, pageLoadPriority);
+				return false;
+			}
+
+			final String pageId = PageId.toString(pageKey);
+			if (LogBridge.isLoggable())
+				LogBridge.i("Scheduling pageload request: " + pageId);
+			pageLoadRequest = new PageLoadRequest(pageId, pageLoadPriority,
+					pageLoadHandle != null, myGeneration);
+			if (pageLoadHandle != null)
+				pageLoadRequest.addPageLoadHandle(pageLoadHandle);
+			if (pageLoadPriority.isForeground())
+				acquireForeground();
+			myPendingRequests.put(pageKey, pageLoadRequest);
+			return enqueueRequest(pageLoadRequest);
+		}
+	}
+
+	// guarded by myPendingRequests
+	private void raisePriority(final PageLoadRequest pageLoadRequest,
+			final PageLoadPriority pageLoadPriority) {
+		if (pageLoadPriority
+				.compareTo(pageLoadRequest.getPageLoadPriority()) >= 0)
+			return;
+		// a running fetch keeps its lane, a queued one moves
+		final boolean queued = myLoadRequests.remove(pageLoadRequest);
+		updatePriority(pageLoadRequest, pageLoadPriority);
+		if (queued)
+			enqueueRequest(pageLoadRequest);
+	}
+
+	// guarded by myPendingRequests
+	private void updatePriority(final PageLoadRequest pageLoadRequest,
+			final PageLoadPriority pageLoadPriority) {
+		final boolean foreground = pageLoadRequest.getPageLoadPriority()
+				.isForeground();
+		pageLoadRequest.setPageLoadPriority(pageLoadPriority);
+		if (!foreground && pageLoadPriority.isForeground())
+			acquireForeground();
+	}
+
+	// guarded by myPendingRequests, returns false when a full queue dropped
+	// the request itself as its least valuable entry
+	private boolean enqueueRequest(final PageLoadRequest pageLoadRequest) {
+		if (pageLoadRequest.getPageLoadPriority().isForeground()) {
+			myForegroundRequests.offer(pageLoadRequest);
+			return true;
+		}
+		final PageLoadRequest droppedRequest = myLoadRequests
+				.offer(pageLoadRequest);
+		if (droppedRequest != null)
+			dropRequest(droppedRequest);
+		return droppedRequest != pageLoadRequest;
+	}
+
+	// guarded by myPendingRequests
+	private boolean isWanted(final PageLoadRequest pageLoadRequest) {
+		if (!pageLoadRequest.getPageLoadHandles().isEmpty())
+			return true;
+		return pageLoadRequest.isSpeculative()
+				&& pageLoadRequest.getGeneration() == myGeneration;
+	}
+
+	// guarded by myPendingRequests
+	private void dropIfUnwanted(final PageLoadRequest pageLoadRequest) {
+		if (isWanted(pageLoadRequest))
 			return;
+		if (myForegroundRequests.remove(pageLoadRequest)
+				|| myLoadRequests.remove(pageLoadRequest)) {
+			dropRequest(pageLoadRequest);
+			return;
+		}
+		// running, the runner drops it when the fetch returns
+		if (LogBridge.isLoggable())
+			LogBridge.i("Aborting pageload: " + pageLoadRequest);
+		pageLoadRequest.abort();
+	}
 
+	// guarded by myPendingRequests
+	private void dropRequest(final PageLoadRequest pageLoadRequest) {
 		if (LogBridge.isLoggable())
-			LogBridge.i("Scheduling pageload request: " + pageId);
-		final PageLoadRequest pageLoadRequest = new PageLoadRequest(pageId,
-				PageLoadPriority.LOW, null, false);
-		myLoadRequests.offer(pageLoadRequest);
+			LogBridge.i("Dropping pageload request: " + pageLoadRequest);
+		myPendingRequests.remove(pageLoadRequest.getPageKey());
+		releaseForeground(pageLoadRequest);
 	}
 
-	private PageEntity doLoadPage(final String pageId, final boolean preload) {
+	// guarded by myPendingRequests
+	private void acquireForeground() {
+		myForegroundCount++;
+		preemptPreloads();
+	}
+
+	// guarded by myPendingRequests
+	private void releaseForeground(final PageLoadRequest pageLoadRequest) {
+		if (pageLoadRequest.getPageLoadPriority().isForeground()
+				&& --myForegroundCount == 0)
+			myPendingRequests.notifyAll();
+	}
 
-		PageEntity pageEntity = myPageCache.get(pageId);
-		if (pageEntity != null) {
-			if (System.currentTimeMillis() < pageEntity.getExpires()) {
+	// guarded by myPendingRequests
+	private void preemptPreloads() {
+		for (final PageLoadRequest pageLoadRequest : myRunningPreloads) {
+			if (!pageLoadRequest.getPageLoadPriority().isForeground()) {
 				if (LogBridge.isLoggable())
-					LogBridge.i("Returning cached entity: " + pageId);
-				return pageEntity;
+					LogBridge.i("Aborting preload: " + pageLoadRequest);
+				pageLoadRequest.abort();
 			}
-			myPageCache.remove(pageId);
 		}
+	}
 
-		final byte[] bytes = readPageBytes(pageId);
-		if (bytes == null)
-			return null;
+	private boolean startPreload(final PageLoadRequest pageLoadRequest)
+			throws InterruptedException {
+		synchronized (myPendingRequests) {
+			if (!isWanted(pageLoadRequest)) {
+				dropRequest(pageLoadRequest);
+				return false;
+			}
+			if (!pageLoadRequest.getPageLoadPriority().isForeground()
+					&& myForegroundCount > 0) {
+				enqueueRequest(pageLoadRequest);
+				while (myForegroundCount > 0)
+					myPendingRequests.wait();
+				return false;
+			}
+			myRunningPreloads.add(pageLoadRequest);
+			return true;
+		}
+	}
 
-		pageEntity = myPageProcessor.process(pageId, bytes);
-		if (pageEntity == null)
-			return null;
+	private boolean finishRequest(final PageLoadRequest pageLoadRequest,
+			final PageEntity pageEntity) {
+		synchronized (myPendingRequests) {
+			myRunningPreloads.remove(pageLoadRequest);
+			if (pageEntity != null || !pageLoadRequest.isAborted())
+				return true;
+			pageLoadRequest.resetAbort();
+			if (!isWanted(pageLoadRequest)) {
+				dropRequest(pageLoadRequest);
+				return false;
+			}
+			// preempted, retry once the foreground is idle again
+			enqueueRequest(pageLoadRequest);
+			return false;
+		}
+	}
 
-		myPageCache.put(pageId, pageEntity);
-		if (preload) {
-			preLoadReferencedPages(pageEntity);
+	private void completeRequest(final PageLoadRequest pageLoadRequest,
+			final PageEntity pageEntity) {
+
+		final List<PageLoadHandle> pageLoadHandles;
+		final boolean preload;
+		final boolean crawl;
+		final int generation;
+		synchronized (myPendingRequests) {
+			myPendingRequests.remove(pageLoadRequest.getPageKey());
+			releaseForeground(pageLoadRequest);
+			pageLoadHandles = pageLoadRequest.getPageLoadHandles();
+			preload = pageLoadRequest.isPreload() && !pageLoadHandles.isEmpty();
+			crawl = pageLoadHandles.isEmpty()
+					&& pageLoadRequest.getPageLoadPriority() == PageLoadPriority.NEIGHBOUR;
+			generation = pageLoadRequest.getGeneration();
 		}
 
+		final PageLoadException pageLoadException = pageEntity != null ? null
+				: pageLoadRequest.getFailure() != null ? pageLoadRequest
+						.getFailure() : new PageLoadException(
+						pageLoadRequest.getPageId(),
+						PageLoadException.Reason.FAILED);
+		for (final PageLoadHandle pageLoadHandle : pageLoadHandles) {
+			if (pageLoadHandle.isCancelled())
+				continue;
+			pageLoadHandle.complete(pageEntity, pageLoadException);
+		}
+		if (preload && pageEntity != null) {
+			preLoadReferencedPages(pageEntity, generation);
+		} else if (crawl && pageEntity != null) {
+			crawlNeighbourPages(pageEntity, generation);
+		}
+	}
+
+	// hands a restored page to the waiting handles ahead of its revalidation
+	private void completeStale(final PageLoadRequest pageLoadRequest,
+			final PageEntity pageEntity) {
+		final List<PageLoadHandle> pageLoadHandles;
+		synchronized (myPendingRequests) {
+			pageLoadHandles = new ArrayList<PageLoadHandle>(
+					pageLoadRequest.getPageLoadHandles());
+		}
+		for (final PageLoadHandle pageLoadHandle : pageLoadHandles) {
+			if (!pageLoadHandle.isCancelled())
+				pageLoadHandle.completeStale(pageEntity);
+		}
+	}
+
+	/**
+	 * Returns the page kept in the disk cache, already expired so that it is
+	 * revalidated, or null.
+	 */
+	private PageEntity restorePage(final String pageId,
+			final PageProcessor pageProcessor) {
+		if (myPageDiskCache == null)
+			return null;
+		final PageResponse pageResponse = myPageDiskCache.get(pageId);
+		if (pageResponse == null)
+			return null;
+		final PageEntity pageEntity = pageProcessor.process(pageId,
+				pageResponse.getBytes(), pageResponse.getLength(),
+				pageResponse.getETag(), pageResponse.getLastModified());
+		if (pageEntity == null)
+			return null;
+		pageEntity.setExpires(0);
 		if (LogBridge.isLoggable())
-			LogBridge.i("Returning new entity: " + pageId);
+			LogBridge.i("Restored entity from disk: " + pageId);
 		return pageEntity;
 	}
 
-	private byte[] readPageBytes(final String pageId) {
-		URLConnection urlConnection = null;
-		InputStream inputStream = null;
-		try {
-			URL pageUrl = new URL(BASE_URL + pageId);
-			urlConnection = pageUrl.openConnection();
-			inputStream = new BufferedInputStream(
-					urlConnection.getInputStream());
-			int byteCount = inputStream.read(myReadBuffer);
-
-			byte[] resultBuffer = new byte[byteCount];
-			System.arraycopy(myReadBuffer, 0, resultBuffer, 0, byteCount);
-			return resultBuffer;
-		} catch (final IOException e) {
-			LogBridge.w("IoException while loading " + pageId);
-			return null;
-		} finally {
-			if (inputStream != null) {
-				try {
-					inputStream.close();
-				} catch (IOException e) {
-				}
-			}
+	private boolean isSpeculative(final PageLoadRequest pageLoadRequest) {
+		synchronized (myPendingRequests) {
+			return pageLoadRequest.getPageLoadHandles().isEmpty();
 		}
 	}
 
 	private class PageLoadRunner implements Runnable {
 
+		private final PageLoadQueue myQueue;
+		private final boolean myForeground;
+
+		private final PageProcessor myPageProcessor = new PageProcessor();
+
+		public PageLoadRunner(final PageLoadQueue queue,
+				final boolean foreground) {
+			myQueue = queue;
+			myForeground = foreground;
+		}
+
 		@Override
 		public void run() {
 			try {
 				while (true) {
-					final PageLoadRequest pageLoadRequest = myLoadRequests
-							.take();
+					final PageLoadRequest pageLoadRequest = myQueue.take();
+					if (!myForeground && !startPreload(pageLoadRequest))
+						continue;
+					PageEntity pageEntity = null;
 					try {
-						final PageEntity pageEntity = doLoadPage(
-								pageLoadRequest.getPageId(),
-								pageLoadRequest.isPreload());
-						if (pageLoadRequest.getPageLoadCompletionHandler() != null) {
-							pageLoadRequest.getPageLoadCompletionHandler()
-									.pageLoadCompleted(pageEntity);
-						}
+						pageEntity = doLoadPage(pageLoadRequest);
 					} catch (final Exception e) {
 						LogBridge.w("Received an Exception "
 								+ e.getClass().getName() + " " + e.getCause());
 					}
+					if (!finishRequest(pageLoadRequest, pageEntity))
+						continue;
+					completeRequest(pageLoadRequest, pageEntity);
 				}
 			} catch (final InterruptedException e) {
 				LogBridge.w("Received an InterruptedException");
 			}
 		}
+
+		private PageEntity doLoadPage(final PageLoadRequest pageLoadRequest) {
+
+			final String pageId = pageLoadRequest.getPageId();
+			final int pageKey = pageLoadRequest.getPageKey();
+			PageEntity pageEntity = myPageCache.peek(pageKey);
+			final boolean uncached = pageEntity == null;
+			if (uncached)
+				pageEntity = restorePage(pageId, myPageProcessor);
+			if (pageEntity != null
+					&& System.currentTimeMillis() < pageEntity.getExpires()) {
+				if (LogBridge.isLoggable())
+					LogBridge.i("Returning cached entity: " + pageId);
+				if (uncached)
+					myPageCache.put(pageKey, pageEntity,
+							isSpeculative(pageLoadRequest));
+				return pageEntity;
+			}
+
+			// a page restored from disk is shown however old it is
+			if (uncached && pageEntity != null)
+				completeStale(pageLoadRequest, pageEntity);
+
+			// an expired entity is kept to revalidate against
+			final PageResponse pageResponse;
+			try {
+				pageResponse = myPageFetcher.fetch(pageLoadRequest, pageEntity);
+			} catch (final IOException e) {
+				LogBridge.w("Failed to load " + pageId + ": " + e);
+				pageLoadRequest.setFailure(PageLoadException.from(pageId, e));
+				if (pageEntity == null || pageLoadRequest.isAborted())
+					return null;
+				// better an outdated page than none
+				if (LogBridge.isLoggable())
+					LogBridge.i("Returning expired entity: " + pageId);
+				if (uncached)
+					myPageCache.put(pageKey, pageEntity,
+							isSpeculative(pageLoadRequest));
+				return pageEntity;
+			}
+
+			if (pageResponse.isNotModified()) {
+				if (LogBridge.isLoggable())
+					LogBridge.i("Revalidated cached entity: " + pageId);
+				pageEntity.renewExpires();
+				if (uncached)
+					myPageCache.put(pageKey, pageEntity,
+							isSpeculative(pageLoadRequest));
+				return pageEntity;
+			}
+
+			try {
+				pageEntity = myPageProcessor.process(pageId,
+						pageResponse.getBytes(), pageResponse.getLength(),
+						pageResponse.getETag(), pageResponse.getLastModified());
+				if (pageEntity != null && myPageDiskCache != null)
+					myPageDiskCache.put(pageId, pageResponse.getBytes(),
+							pageResponse.getLength(), pageResponse.getETag(),
+							pageResponse.getLastModified());
+			} finally {
+				myPageFetcher.release(pageResponse);
+			}
+			if (pageEntity == null) {
+				pageLoadRequest.setFailure(new PageLoadException(pageId,
+						PageLoadException.Reason.NOT_FOUND));
+				return null;
+			}
+
+			myPageCache.put(pageKey, pageEntity, isSpeculative(pageLoadRequest));
+
+			if (LogBridge.isLoggable())
+				LogBridge.i("Returning new entity: " + pageId);
+			return pageEntity;
+		}
 	}
 }
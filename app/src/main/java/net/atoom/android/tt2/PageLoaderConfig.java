@@ -0,0 +1,290 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.File;
+
+public final class PageLoaderConfig {
+
+	private static final String DEFAULT_BASE_URL = "http://teletekst-data.nos.nl/page/";
+	private static final int DEFAULT_WORKER_COUNT = 3;
+	private static final int DEFAULT_PRELOAD_CAPACITY = 32;
+	private static final int DEFAULT_PRELOAD_BUDGET = 16;
+	private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+	private static final int DEFAULT_READ_TIMEOUT = 10000;
+	private static final int DEFAULT_MAX_RETRIES = 2;
+	private static final long DEFAULT_RETRY_BACKOFF = 250;
+	private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	private static final long DEFAULT_CIRCUIT_OPEN_DURATION = 5000;
+	private static final long DEFAULT_MAX_CIRCUIT_OPEN_DURATION = 60000;
+	private static final double DEFAULT_PRELOAD_RATE = 10;
+	private static final int DEFAULT_PRELOAD_BURST = 10;
+	private static final long DEFAULT_STALE_WINDOW = 600000;
+	private static final int DEFAULT_NIO_MAX_CONNECTIONS = 8;
+	private static final long DEFAULT_CACHE_BUDGET = 4 * 1024 * 1024;
+	private static final long DEFAULT_DISK_CACHE_SIZE = 1024 * 1024;
+	private static final long DEFAULT_HTML_CACHE_BUDGET = 1024 * 1024;
+
+	private String myBaseUrl = DEFAULT_BASE_URL;
+	private int myWorkerCount = DEFAULT_WORKER_COUNT;
+	private int myPreloadCapacity = DEFAULT_PRELOAD_CAPACITY;
+	private int myPreloadBudget = DEFAULT_PRELOAD_BUDGET;
+	private int myConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private int myReadTimeout = DEFAULT_READ_TIMEOUT;
+	private int myMaxRetries = DEFAULT_MAX_RETRIES;
+	private long myRetryBackoff = DEFAULT_RETRY_BACKOFF;
+	private int myFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+	private long myCircuitOpenDuration = DEFAULT_CIRCUIT_OPEN_DURATION;
+	private long myMaxCircuitOpenDuration = DEFAULT_MAX_CIRCUIT_OPEN_DURATION;
+	private double myPreloadRate = DEFAULT_PRELOAD_RATE;
+	private int myPreloadBurst = DEFAULT_PRELOAD_BURST;
+	private long myStaleWindow = DEFAULT_STALE_WINDOW;
+	private PageSource myPageSource;
+	private boolean myNioFetch;
+	private int myNioMaxConnections = DEFAULT_NIO_MAX_CONNECTIONS;
+	private long myCacheBudget = DEFAULT_CACHE_BUDGET;
+	private File myDiskCacheDir;
+	private long myDiskCacheSize = DEFAULT_DISK_CACHE_SIZE;
+	private long myHtmlCacheBudget = DEFAULT_HTML_CACHE_BUDGET;
+
+	public String getBaseUrl() {
+		return myBaseUrl;
+	}
+
+	public void setBaseUrl(final String baseUrl) {
+		myBaseUrl = baseUrl;
+	}
+
+	public int getWorkerCount() {
+		return myWorkerCount;
+	}
+
+	public void setWorkerCount(final int workerCount) {
+		myWorkerCount = workerCount;
+	}
+
+	public int getPreloadCapacity() {
+		return myPreloadCapacity;
+	}
+
+	/**
+	 * Maximum number of speculative requests waiting in the preload queue.
+	 */
+	public void setPreloadCapacity(final int preloadCapacity) {
+		myPreloadCapacity = preloadCapacity;
+	}
+
+	public int getPreloadBudget() {
+		return myPreloadBudget;
+	}
+
+	/**
+	 * Maximum number of new preloads scheduled for a single loaded page.
+	 */
+	public void setPreloadBudget(final int preloadBudget) {
+		myPreloadBudget = preloadBudget;
+	}
+
+	public int getConnectTimeout() {
+		return myConnectTimeout;
+	}
+
+	public void setConnectTimeout(final int connectTimeout) {
+		myConnectTimeout = connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return myReadTimeout;
+	}
+
+	public void setReadTimeout(final int readTimeout) {
+		myReadTimeout = readTimeout;
+	}
+
+	public int getMaxRetries() {
+		return myMaxRetries;
+	}
+
+	/**
+	 * Number of times a failed foreground fetch is retried, preloads are
+	 * never retried.
+	 */
+	public void setMaxRetries(final int maxRetries) {
+		myMaxRetries = maxRetries;
+	}
+
+	public long getRetryBackoff() {
+		return myRetryBackoff;
+	}
+
+	/**
+	 * Delay before the first retry in milliseconds, doubled for every next
+	 * retry.
+	 */
+	public void setRetryBackoff(final long retryBackoff) {
+		myRetryBackoff = retryBackoff;
+	}
+
+	public int getFailureThreshold() {
+		return myFailureThreshold;
+	}
+
+	/**
+	 * Number of consecutive failed fetches that opens the upstream circuit.
+	 */
+	public void setFailureThreshold(final int failureThreshold) {
+		myFailureThreshold = failureThreshold;
+	}
+
+	public long getCircuitOpenDuration() {
+		return myCircuitOpenDuration;
+	}
+
+	/**
+	 * Time in milliseconds before the first probe is let through an open
+	 * circuit, doubled after every failed probe.
+	 */
+	public void setCircuitOpenDuration(final long circuitOpenDuration) {
+		myCircuitOpenDuration = circuitOpenDuration;
+	}
+
+	public long getMaxCircuitOpenDuration() {
+		return myMaxCircuitOpenDuration;
+	}
+
+	public void setMaxCircuitOpenDuration(final long maxCircuitOpenDuration) {
+		myMaxCircuitOpenDuration = maxCircuitOpenDuration;
+	}
+
+	public double getPreloadRate() {
+		return myPreloadRate;
+	}
+
+	/**
+	 * Maximum number of preload fetches per second while the upstream is
+	 * healthy.
+	 */
+	public void setPreloadRate(final double preloadRate) {
+		myPreloadRate = preloadRate;
+	}
+
+	public int getPreloadBurst() {
+		return myPreloadBurst;
+	}
+
+	public void setPreloadBurst(final int preloadBurst) {
+		myPreloadBurst = preloadBurst;
+	}
+
+	public long getStaleWindow() {
+		return myStaleWindow;
+	}
+
+	/**
+	 * Time in milliseconds after expiry during which a cached page is still
+	 * delivered immediately while it is revalidated in the background. Zero
+	 * disables stale-while-revalidate.
+	 */
+	public void setStaleWindow(final long staleWindow) {
+		myStaleWindow = staleWindow;
+	}
+
+	public boolean isNioFetch() {
+		return myNioFetch;
+	}
+
+	/**
+	 * Fetches pages from the base url with the non-blocking engine, which
+	 * multiplexes all fetches on a single I/O thread, instead of with
+	 * HttpURLConnection.
+	 */
+	public void setNioFetch(final boolean nioFetch) {
+		myNioFetch = nioFetch;
+	}
+
+	public int getNioMaxConnections() {
+		return myNioMaxConnections;
+	}
+
+	/**
+	 * Number of connections the non-blocking engine opens to the teletext
+	 * host, fetches beyond that wait for a free connection.
+	 */
+	public void setNioMaxConnections(final int nioMaxConnections) {
+		myNioMaxConnections = nioMaxConnections;
+	}
+
+	public long getCacheBudget() {
+		return myCacheBudget;
+	}
+
+	/**
+	 * Estimated heap in bytes the page cache may retain. Mosaic-heavy pages
+	 * weigh many times more than text pages, so the number of cached pages
+	 * varies with what is browsed.
+	 */
+	public void setCacheBudget(final long cacheBudget) {
+		myCacheBudget = cacheBudget;
+	}
+
+	public File getDiskCacheDir() {
+		return myDiskCacheDir;
+	}
+
+	/**
+	 * Directory to keep loaded pages in across process restarts, so a cold
+	 * start shows the last known page while it is revalidated. Null, the
+	 * default, keeps pages in memory only.
+	 */
+	public void setDiskCacheDir(final File diskCacheDir) {
+		myDiskCacheDir = diskCacheDir;
+	}
+
+	public long getDiskCacheSize() {
+		return myDiskCacheSize;
+	}
+
+	/**
+	 * Size in bytes the disk cache file may grow to before it is compacted.
+	 */
+	public void setDiskCacheSize(final long diskCacheSize) {
+		myDiskCacheSize = diskCacheSize;
+	}
+
+	public long getHtmlCacheBudget() {
+		return myHtmlCacheBudget;
+	}
+
+	/**
+	 * Estimated heap in bytes the rendered html of recently shown pages may
+	 * retain, most of it deflated.
+	 */
+	public void setHtmlCacheBudget(final long htmlCacheBudget) {
+		myHtmlCacheBudget = htmlCacheBudget;
+	}
+
+	PageSource getPageSource() {
+		return myPageSource;
+	}
+
+	/**
+	 * Source to load pages from instead of the teletext host at the base
+	 * url, e.g. a DirectoryPageSource or a MirrorPageSource.
+	 */
+	void setPageSource(final PageSource pageSource) {
+		myPageSource = pageSource;
+	}
+}
@@ -29,24 +29,55 @@ public final class PageProcessor {
 	private final static Pattern PATTERN_FASTTEKST = Pattern
 			.compile("([^\\s]+.*)");
 
-	public PageEntity process(final String pageId, final byte[] bytes) {
+	private final static int VIDEOTEXT_SIZE = 24 * 40;
 
-		final PageEntity pageEntity = new PageEntity(pageId);
-		int videoTextIndex = processFile(pageEntity, bytes);
+	public PageEntity process(final String pageId, final byte[] bytes,
+			final int length) {
+		return process(pageId, bytes, length, null, null);
+	}
+
+	public PageEntity process(final String pageId, final byte[] bytes,
+			final int length, final String eTag, final String lastModified) {
+
+		final PageEntity.Builder builder = new PageEntity.Builder(pageId);
+		int videoTextIndex = processFile(builder, bytes, length);
 		if (videoTextIndex == -1)
 			return null;
 
-		processVideoText(pageEntity, bytes, videoTextIndex + 40);
-		return pageEntity;
+		// header row is skipped
+		if (videoTextIndex + 40 + VIDEOTEXT_SIZE > length)
+			return null;
+
+		final byte[] videoText = new byte[VIDEOTEXT_SIZE];
+		System.arraycopy(bytes, videoTextIndex + 40, videoText, 0,
+				VIDEOTEXT_SIZE);
+		builder.setVideoText(videoText);
+		final VideoTextState state = new VideoTextState();
+		state.linkBuilder = builder;
+		processVideoText(videoText, state);
+		return builder.setETag(eTag).setLastModified(lastModified).build();
 	}
 
-	private int processFile(final PageEntity pageEntity, final byte[] bytes) {
+	/**
+	 * Renders the videotext of the given page to html.
+	 */
+	public static String render(final PageEntity pageEntity) {
+		final VideoTextState state = new VideoTextState();
+		state.fastLinkPageKeys = new int[pageEntity.getFastLinkCount()];
+		for (int i = 0; i < state.fastLinkPageKeys.length; i++)
+			state.fastLinkPageKeys[i] = pageEntity.getFastLinkPageKey(i);
+		processVideoText(pageEntity.getVideoText(), state);
+		return state.htmlBuilder.toString();
+	}
+
+	private int processFile(final PageEntity.Builder builder,
+			final byte[] bytes, final int length) {
 
 		int index = 0;
 		int mark = 0;
-		for (; index < bytes.length; index++) {
+		for (; index < length; index++) {
 
-			if (index < (bytes.length - 5)
+			if (index < (length - 5)
 					&& // detect <pre>
 					bytes[index] == (byte) 60 && bytes[index + 1] == (byte) 112
 					&& bytes[index + 2] == (byte) 114
@@ -61,21 +92,19 @@ public final class PageProcessor {
 			final String line = new String(bytes, mark, index - mark);
 			mark = index + 1;
 			if (line.startsWith("pn=p_"))
-				pageEntity.setPrevPageId(line.replace("pn=p_", ""));
+				builder.setPrevPageKey(PageId.parse(line.substring(5)));
 			else if (line.startsWith("pn=n_"))
-				pageEntity.setNextPageId(line.replace("pn=n_", ""));
+				builder.setNextPageKey(PageId.parse(line.substring(5)));
 			else if (line.startsWith("pn=ps"))
-				pageEntity.setPrevSubPageId(line.replace("pn=ps", ""));
+				builder.setPrevSubPageKey(PageId.parse(line.substring(5)));
 			else if (line.startsWith("pn=ns"))
-				pageEntity.setNextSubPageId(line.replace("pn=ns", ""));
+				builder.setNextSubPageKey(PageId.parse(line.substring(5)));
 			else if (line.startsWith("ftl="))
-				pageEntity.addFastLinkPageId(line.replace("ftl=", ""));
+				builder.addFastLinkPageKey(PageId.parse(line.substring(4)));
 		}
 		return -1;
 	}
 
-	private final VideoTextState myVideoTextState = new VideoTextState();
-
 	static class VideoTextState {
 
 		final StringBuffer htmlBuilder = new StringBuffer();
@@ -83,6 +112,10 @@ public final class PageProcessor {
 		final Matcher pageLinkMatcher = PATTERN_PAGELINK.matcher("");
 		final Matcher fastLinkMatcher = PATTERN_FASTTEKST.matcher("");
 
+		// set when the pass only collects the page links, no html is built
+		PageEntity.Builder linkBuilder;
+		int length;
+		int[] fastLinkPageKeys;
 		int rowIndex;
 		int colIndex;
 		boolean skipLine;
@@ -113,37 +146,37 @@ public final class PageProcessor {
 		}
 	}
 
-	private void processVideoText(final PageEntity pageEntity,
-			final byte[] bytes, final int videoTextIndex) {
+	private static void processVideoText(final byte[] bytes,
+			final VideoTextState state) {
 
-		final VideoTextState state = myVideoTextState; // reuse
 		state.reset();
+		state.length = bytes.length;
 		for (state.rowIndex = 0; state.rowIndex < 24; state.rowIndex++) {
 
 			state.nextLine();
 			for (state.colIndex = 0; state.colIndex < 40 && !state.skipLine; state.colIndex++) {
-				final int byteIndex = (state.rowIndex * 40) + state.colIndex
-						+ videoTextIndex;
+				final int byteIndex = (state.rowIndex * 40) + state.colIndex;
 				checkControlsPre(state, bytes, byteIndex);
 				if (state.textMode)
-					processTextByte(pageEntity, bytes, byteIndex, state);
+					processTextByte(bytes, byteIndex, state);
 				else
-					processMosaicByte(pageEntity, bytes, byteIndex, state);
+					processMosaicByte(bytes, byteIndex, state);
 				checkControlsPost(state, bytes, byteIndex);
 			}
 		}
-		pageEntity.setHtmlData(state.htmlBuilder.toString());
 	}
 
-	private void processMosaicByte(final PageEntity pageEntity,
-			final byte[] bytes, final int byteIndex, final VideoTextState state) {
+	private static void processMosaicByte(final byte[] bytes,
+			final int byteIndex, final VideoTextState state) {
 
 		byte mosciacByte = bytes[byteIndex];
 		if (mosciacByte > 64 && mosciacByte < 96) {
-			state.htmlBuilder.append("<div class=\"t x" + state.divPosition
-					+ " y" + state.rowIndex + " h1 w1" + " b" + state.backColor
-					+ " t" + state.textColor + "\" data-m=\"" + mosciacByte
-					+ "\">" + byteToString(bytes, byteIndex) + "</div>");
+			if (state.linkBuilder == null)
+				state.htmlBuilder.append("<div class=\"t x"
+						+ state.divPosition + " y" + state.rowIndex + " h1 w1"
+						+ " b" + state.backColor + " t" + state.textColor
+						+ "\" data-m=\"" + mosciacByte + "\">"
+						+ byteToString(bytes, byteIndex) + "</div>");
 			state.divPosition++;
 			return;
 		}
@@ -159,22 +192,29 @@ public final class PageProcessor {
 				&& (mosciacByte == 32 || mosciacByte == 35 || mosciacByte == 44
 						|| mosciacByte == 47 || mosciacByte == 112
 						|| mosciacByte == 124 || mosciacByte == 127)) {
-			while (bytes[byteIndex + lineWidth] == mosciacByte)
+			while (byteIndex + lineWidth < state.length
+					&& bytes[byteIndex + lineWidth] == mosciacByte)
 				lineWidth++;
 		}
 
 		if (lineWidth > 1) {
-			state.htmlBuilder.append("<div class=\"t x" + state.divPosition
-					+ " y" + state.rowIndex + " h1 w" + lineWidth + " b"
-					+ state.backColor + " t" + state.textColor + "\" data-m=\""
-					+ mosciacByte + "\"><svg>");
-			if (mosciacByte != 32)
-				state.htmlBuilder.append("<use xlink:href=\"#lc" + mosciacByte
-						+ "\" />");
-			state.htmlBuilder.append("</svg></div>\n");
+			if (state.linkBuilder == null) {
+				state.htmlBuilder.append("<div class=\"t x"
+						+ state.divPosition + " y" + state.rowIndex + " h1 w"
+						+ lineWidth + " b" + state.backColor + " t"
+						+ state.textColor + "\" data-m=\"" + mosciacByte
+						+ "\"><svg>");
+				if (mosciacByte != 32)
+					state.htmlBuilder.append("<use xlink:href=\"#lc"
+							+ mosciacByte + "\" />");
+				state.htmlBuilder.append("</svg></div>\n");
+			}
 
+			// the bytes of the run are skipped, by the link collection too
 			state.colIndex += (lineWidth - 1);
 			state.divPosition += lineWidth;
+		} else if (state.linkBuilder != null) {
+			state.divPosition++;
 		} else {
 			state.htmlBuilder.append("<div class=\"t x" + state.divPosition
 					+ " y" + state.rowIndex + " h1 w1" + " b" + state.backColor
@@ -193,8 +233,8 @@ public final class PageProcessor {
 		}
 	}
 
-	private void processTextByte(final PageEntity pageEntity,
-			final byte[] bytes, final int byteIndex, final VideoTextState state) {
+	private static void processTextByte(final byte[] bytes,
+			final int byteIndex, final VideoTextState state) {
 
         final String text = byteToString(bytes, byteIndex);
         state.divBuilder.append(text);
@@ -206,6 +246,12 @@ public final class PageProcessor {
 		final String line = state.divBuilder.toString();
 		state.divBuilder.setLength(0);
 
+		if (state.linkBuilder != null) {
+			if (state.rowIndex != 23)
+				collectPageLinks(line, state);
+			return;
+		}
+
 		if (state.doubleSize)
 			state.htmlBuilder.append("<div class=\"t1 x" + state.divPosition
 					+ " y" + state.rowIndex + " h2 w" + line.length() + " b"
@@ -220,12 +266,18 @@ public final class PageProcessor {
 		if (state.rowIndex == 23) {
 			state.fastLinkMatcher.reset(line);
 			if (state.fastLinkMatcher.find()
-					&& pageEntity.getFastLinkPageIds().size() > state.fastLinkPosition) {
-				final String link = pageEntity.getFastLinkPageIds().get(
-						state.fastLinkPosition++);
-				state.fastLinkMatcher.appendReplacement(state.htmlBuilder,
-						"<a  href=\"" + PageIdUtil.toInternalLink(link) + "\">"
-								+ state.fastLinkMatcher.group(1) + "</a>");
+					&& state.fastLinkPageKeys.length > state.fastLinkPosition) {
+				final int pageKey = state.fastLinkPageKeys[state.fastLinkPosition++];
+				// a placeholder for a broken ftl line stays plain text
+				if (pageKey != PageId.INVALID) {
+					final String link = PageId.toString(pageKey);
+					// the run is plain text, a '$' in it is no group reference
+					state.fastLinkMatcher.appendReplacement(state.htmlBuilder,
+							"");
+					state.htmlBuilder.append("<a  href=\""
+							+ PageIdUtil.toInternalLink(link) + "\">"
+							+ state.fastLinkMatcher.group(1) + "</a>");
+				}
 			}
 			state.fastLinkMatcher.appendTail(state.htmlBuilder);
 		} else {
@@ -237,10 +289,10 @@ public final class PageProcessor {
 				if (link.startsWith("147") || link.startsWith("199"))
 					continue;
 
-				pageEntity.addLinkedPageId(link);
-				state.pageLinkMatcher.appendReplacement(state.htmlBuilder,
-						"<a href=\"" + PageIdUtil.toInternalLink(link) + "\">"
-								+ state.pageLinkMatcher.group(1) + "</a>");
+				state.pageLinkMatcher.appendReplacement(state.htmlBuilder, "");
+				state.htmlBuilder.append("<a href=\""
+						+ PageIdUtil.toInternalLink(link) + "\">" + link
+						+ "</a>");
 			}
 			state.pageLinkMatcher.appendTail(state.htmlBuilder);
 		}
@@ -248,7 +300,18 @@ public final class PageProcessor {
 		state.divPosition += line.length();
 	}
 
-	private void checkControlsPre(final VideoTextState state,
+	private static void collectPageLinks(final String line,
+			final VideoTextState state) {
+		state.pageLinkMatcher.reset(line);
+		while (state.pageLinkMatcher.find()) {
+			// exclude broken politie/ticker links
+			final String link = state.pageLinkMatcher.group(1);
+			if (!link.startsWith("147") && !link.startsWith("199"))
+				state.linkBuilder.addLinkedPageKey(PageId.parse(link));
+		}
+	}
+
+	private static void checkControlsPre(final VideoTextState state,
 			final byte[] bytes, final int byteIndex) {
 		switch (bytes[byteIndex]) {
 		case 12:
@@ -258,7 +321,7 @@ public final class PageProcessor {
 			state.doubleSize = true;
 			break;
 		case 30:
-			state.holdMosaic = bytes[byteIndex - 1];
+			state.holdMosaic = byteIndex > 0 ? bytes[byteIndex - 1] : 0;
 			break;
 		case 31:
 			state.holdMosaic = 0;
@@ -266,7 +329,7 @@ public final class PageProcessor {
 		}
 	}
 
-	private void checkControlsPost(final VideoTextState state,
+	private static void checkControlsPost(final VideoTextState state,
 			final byte[] bytes, final int byteIndex) {
 		switch (bytes[byteIndex]) {
 		case 0:
@@ -349,7 +412,7 @@ public final class PageProcessor {
 		}
 	}
 
-	private String byteToString(final byte[] bytes, int byteIndex) {
+	private static String byteToString(final byte[] bytes, int byteIndex) {
         if(bytes[byteIndex] > 32 || bytes[byteIndex] < 0){
             try {
                 return new String(bytes, byteIndex, 1, "ISO-8859-1");
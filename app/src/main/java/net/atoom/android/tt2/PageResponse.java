@@ -0,0 +1,102 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+
+final class PageResponse {
+
+	private static final int PAGE_SIZE_HINT = 2048;
+
+	private final byte[] myBytes;
+	private final int myLength;
+	private final boolean myNotModified;
+	private final String myETag;
+	private final String myLastModified;
+
+	private PageResponse(final byte[] bytes, final int length,
+			final boolean notModified, final String eTag,
+			final String lastModified) {
+		myBytes = bytes;
+		myLength = length;
+		myNotModified = notModified;
+		myETag = eTag;
+		myLastModified = lastModified;
+	}
+
+	public static PageResponse notModified() {
+		return new PageResponse(null, 0, true, null, null);
+	}
+
+	public static PageResponse content(final byte[] bytes, final int length,
+			final String eTag, final String lastModified) {
+		return new PageResponse(bytes, length, false, eTag, lastModified);
+	}
+
+	/**
+	 * Reads the content to EOF, or up to the content length when it is known
+	 * (not negative), into a pooled buffer.
+	 */
+	public static PageResponse read(final InputStream inputStream,
+			final int contentLength, final ByteArrayPool byteArrayPool,
+			final String eTag, final String lastModified) throws IOException {
+		byte[] bytes = byteArrayPool.acquire(contentLength > 0 ? contentLength
+				: PAGE_SIZE_HINT);
+		int length = 0;
+		try {
+			while (contentLength < 0 || length < contentLength) {
+				if (length == bytes.length)
+					bytes = byteArrayPool.grow(bytes, length);
+				final int count = inputStream.read(bytes, length, bytes.length
+						- length);
+				if (count == -1)
+					break;
+				length += count;
+			}
+			if (contentLength > 0 && length < contentLength)
+				throw new EOFException("Expected " + contentLength
+						+ " bytes but received " + length);
+		} catch (final IOException e) {
+			byteArrayPool.release(bytes);
+			throw e;
+		}
+		return content(bytes, length, eTag, lastModified);
+	}
+
+	public byte[] getBytes() {
+		return myBytes;
+	}
+
+	public int getLength() {
+		return myLength;
+	}
+
+	public boolean isNotModified() {
+		return myNotModified;
+	}
+
+	public String getETag() {
+		return myETag;
+	}
+
+	public String getLastModified() {
+		return myLastModified;
+	}
+}
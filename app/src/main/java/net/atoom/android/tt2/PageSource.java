@@ -0,0 +1,41 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.IOException;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+
+/**
+ * Where PageLoader gets its raw pages from. Content buffers are taken from
+ * the given pool, they go back to it once the page has been processed.
+ */
+interface PageSource {
+
+	/**
+	 * Reads a page, conditionally when a cached entity is given. Missing
+	 * pages are reported with a FileNotFoundException.
+	 */
+	PageResponse readPage(PageLoadRequest pageLoadRequest,
+			PageEntity cachedPageEntity, ByteArrayPool byteArrayPool)
+			throws IOException;
+
+	/**
+	 * Prepares the source for the first request, e.g. by opening a
+	 * connection.
+	 */
+	void prewarm();
+}
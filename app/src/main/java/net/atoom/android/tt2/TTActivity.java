@@ -19,6 +19,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.concurrent.Executor;
 
 import net.atoom.android.tt2.util.BoundStack;
 import net.atoom.android.tt2.util.LogBridge;
@@ -84,8 +85,14 @@ public final class TTActivity extends Activity {
 	private static final long RELOAD_INTERVAL_MS = 60000;
 	private static final long AD_INIT_DELAY_MS = 3000;
 
-	private final PageLoader myPageLoader = new PageLoader();
+	private PageLoader myPageLoader;
 	private final Handler myHandler = new Handler();
+	private final Executor myMainExecutor = new Executor() {
+		@Override
+		public void execute(final Runnable command) {
+			myHandler.post(command);
+		}
+	};
 	private final BoundStack<PageEntity> myHistoryStack = new BoundStack<PageEntity>(
 			HISTORY_SIZE);
 	private String myHomePageId = CONTENT_STARTPAGEID;
@@ -94,6 +101,7 @@ public final class TTActivity extends Activity {
 	private PageEntity myCurrentPageEntity;
 	private String myTemplate;
 	private int myPageLoadCount = 0;
+	private PageLoadHandle myPageLoadHandle = null;
 	private volatile boolean isStopped = false;
 
 	private MainWebViewAnimator myMainWebViewAnimator = null;
@@ -119,6 +127,10 @@ public final class TTActivity extends Activity {
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 
+		final PageLoaderConfig pageLoaderConfig = new PageLoaderConfig();
+		pageLoaderConfig.setDiskCacheDir(getCacheDir());
+		myPageLoader = new PageLoader(pageLoaderConfig);
+
 		loadPreferences();
 		loadTemplate();
 
@@ -199,52 +211,65 @@ public final class TTActivity extends Activity {
 
 	public synchronized void loadPageUrl(final String pageId,
 			final boolean updateHistory) {
+		loadPageUrl(pageId, updateHistory, false);
+	}
+
+	/**
+	 * Shows the page, a reload waits for an expired page to be revalidated
+	 * instead of showing the stale copy first.
+	 */
+	public synchronized void loadPageUrl(final String pageId,
+			final boolean updateHistory, final boolean reload) {
 		if (isStopped) {
 			return;
 		}
 
 		myPageLoadCount++; // cancels previous reloads
-		myPageLoader.loadPage(pageId, PageLoadPriority.HIGH,
-				new PageLoadCompletionHandler() {
-
-					@Override
-					public void pageLoadCompleted(final PageEntity pageEntity) {
-
-						if (pageEntity == null) {
-							myHandler.post(new Runnable() {
-								@Override
-								public void run() {
-									Toast.makeText(getApplicationContext(),
-											R.string.toast_pagenotfound,
-											Toast.LENGTH_SHORT).show();
-								}
-							});
-							return;
-						}
-
-						myHandler.post(new Runnable() {
-							@Override
-							public void run() {
-								PageEntity previousPageEntity = myCurrentPageEntity;
-								myCurrentPageEntity = pageEntity;
-
-								if (previousPageEntity != null
-										&& updateHistory
-										&& !previousPageEntity.getPageId()
-												.equals(pageId)) {
-									myHistoryStack.push(previousPageEntity);
-								}
-								updateEditText(pageEntity);
-								updateButtons(pageEntity);
-								updateWebView(pageEntity);
-								myHandler.postDelayed(new ReloadRunnable(
-										TTActivity.this, myPageLoadCount),
-										RELOAD_INTERVAL_MS);
-							}
-						});
-					}
-				});
+		final int pageLoadCount = myPageLoadCount;
+		if (myPageLoadHandle != null)
+			myPageLoadHandle.cancel();
+		myPageLoader.startGeneration();
+		final PageLoadFailureHandler pageLoadHandler = new PageLoadFailureHandler() {
+
+			// a stale page is followed by its refreshed content
+			private boolean myRefresh;
+
+			@Override
+			public void pageLoadCompleted(final PageEntity pageEntity) {
+				if (pageLoadCount != myPageLoadCount)
+					return; // superseded
+				PageEntity previousPageEntity = myCurrentPageEntity;
+				myCurrentPageEntity = pageEntity;
+
+				if (previousPageEntity != null && updateHistory && !myRefresh
+						&& PageId.parse(previousPageEntity.getPageId()) != PageId
+								.parse(pageId)) {
+					myHistoryStack.push(previousPageEntity);
+				}
+				updateEditText(pageEntity);
+				updateButtons(pageEntity);
+				updateWebView(pageEntity);
+				if (!myRefresh)
+					myHandler.postDelayed(new ReloadRunnable(
+							TTActivity.this, myPageLoadCount),
+							RELOAD_INTERVAL_MS);
+				myRefresh = true;
+			}
 
+			@Override
+			public void pageLoadFailed(
+					final PageLoadException pageLoadException) {
+				Toast.makeText(
+						getApplicationContext(),
+						pageLoadException.getReason() == PageLoadException.Reason.OFFLINE ? R.string.toast_pageoffline
+								: R.string.toast_pagenotfound,
+						Toast.LENGTH_SHORT).show();
+			}
+		};
+		myPageLoadHandle = reload ? myPageLoader.reloadPage(pageId,
+				PageLoadPriority.VISIBLE, pageLoadHandler, myMainExecutor)
+				: myPageLoader.loadPage(pageId, PageLoadPriority.VISIBLE,
+						pageLoadHandler, myMainExecutor);
 	}
 
 	public synchronized void reloadPageUrl(final int pageLoadCount) {
@@ -257,7 +282,7 @@ public final class TTActivity extends Activity {
 				LogBridge.i("Reloading...");
 			Toast.makeText(getApplicationContext(), R.string.toast_pagereload,
 					Toast.LENGTH_SHORT).show();
-			loadPageUrl(pageEntity.getPageId(), false);
+			loadPageUrl(pageEntity.getPageId(), false, true);
 		} else {
 			if (LogBridge.isLoggable())
 				LogBridge.i("Aborting reload");
@@ -420,7 +445,7 @@ public final class TTActivity extends Activity {
 
 	private void updateWebView(PageEntity pageEntity) {
 		String htmlData = myTemplate.replace(TEMPLATE_PLACEHOLDER,
-				pageEntity.getHtmlData());
+				myPageLoader.getHtmlData(pageEntity));
 		myMainWebViewAnimator.updateWebView(htmlData);
 	}
 
@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2.util;
+
+import java.util.LinkedList;
+
+public final class ByteArrayPool {
+
+	private static final int MIN_ARRAY_SIZE = 1024;
+
+	private final LinkedList<byte[]> myArrays = new LinkedList<byte[]>();
+	private final int myMaxPooled;
+
+	public ByteArrayPool(final int maxPooled) {
+		myMaxPooled = maxPooled;
+	}
+
+	public byte[] acquire(final int minLength) {
+		synchronized (myArrays) {
+			for (final byte[] array : myArrays) {
+				if (array.length >= minLength) {
+					myArrays.remove(array);
+					return array;
+				}
+			}
+		}
+		int size = MIN_ARRAY_SIZE;
+		while (size < minLength)
+			size <<= 1;
+		return new byte[size];
+	}
+
+	public void release(final byte[] array) {
+		if (array == null)
+			return;
+		synchronized (myArrays) {
+			if (myArrays.size() < myMaxPooled)
+				myArrays.addFirst(array);
+		}
+	}
+
+	/**
+	 * Returns an array of at least twice the size holding the first length
+	 * bytes of the given array, which goes back to the pool.
+	 */
+	public byte[] grow(final byte[] array, final int length) {
+		final byte[] grownArray = acquire(array.length * 2);
+		System.arraycopy(array, 0, grownArray, 0, length);
+		release(array);
+		return grownArray;
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2.util;
+
+/**
+ * Opens after a run of consecutive failures and lets a single probe through
+ * once the open period has passed. A failed probe reopens the circuit for
+ * twice as long.
+ */
+public final class CircuitBreaker {
+
+	private enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int myFailureThreshold;
+	private final long myMinOpenDuration;
+	private final long myMaxOpenDuration;
+
+	private State myState = State.CLOSED;
+	private int myFailureCount;
+	private long myOpenDuration;
+	private long myOpenUntil;
+	private boolean myProbing;
+
+	public CircuitBreaker(final int failureThreshold,
+			final long minOpenDuration, final long maxOpenDuration) {
+		myFailureThreshold = failureThreshold;
+		myMinOpenDuration = minOpenDuration;
+		myMaxOpenDuration = maxOpenDuration;
+		myOpenDuration = minOpenDuration;
+	}
+
+	public synchronized boolean allowRequest() {
+		switch (myState) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.currentTimeMillis() < myOpenUntil)
+				return false;
+			myState = State.HALF_OPEN;
+			myProbing = true;
+			return true;
+		default:
+			if (myProbing)
+				return false;
+			myProbing = true;
+			return true;
+		}
+	}
+
+	public synchronized boolean isClosed() {
+		return myState == State.CLOSED;
+	}
+
+	/**
+	 * Returns true while allowRequest refuses everything: the open period
+	 * has not passed yet, or the probe is still running.
+	 */
+	public synchronized boolean isOpen() {
+		if (myState == State.OPEN)
+			return System.currentTimeMillis() < myOpenUntil;
+		return myState == State.HALF_OPEN && myProbing;
+	}
+
+	/**
+	 * Returns true when this success closed the circuit.
+	 */
+	public synchronized boolean recordSuccess() {
+		myFailureCount = 0;
+		myProbing = false;
+		if (myState == State.CLOSED)
+			return false;
+		myState = State.CLOSED;
+		myOpenDuration = myMinOpenDuration;
+		return true;
+	}
+
+	/**
+	 * Returns true when this failure opened the circuit.
+	 */
+	public synchronized boolean recordFailure() {
+		myProbing = false;
+		if (myState == State.HALF_OPEN) {
+			myOpenDuration = Math.min(myMaxOpenDuration, myOpenDuration * 2);
+			open();
+			return true;
+		}
+		if (myState == State.OPEN || ++myFailureCount < myFailureThreshold)
+			return false;
+		open();
+		return true;
+	}
+
+	/**
+	 * Releases a probe that ended without telling anything about the
+	 * upstream, e.g. because it was aborted.
+	 */
+	public synchronized void recordCancelled() {
+		myProbing = false;
+	}
+
+	private void open() {
+		myState = State.OPEN;
+		myFailureCount = 0;
+		myOpenUntil = System.currentTimeMillis() + myOpenDuration;
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2.util;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+public final class DirectBufferPool {
+
+	private static final int MIN_BUFFER_SIZE = 4096;
+
+	private final LinkedList<ByteBuffer> myBuffers = new LinkedList<ByteBuffer>();
+	private final int myMaxPooled;
+
+	public DirectBufferPool(final int maxPooled) {
+		myMaxPooled = maxPooled;
+	}
+
+	/**
+	 * Returns a cleared direct buffer of at least the given capacity.
+	 */
+	public ByteBuffer acquire(final int minCapacity) {
+		synchronized (myBuffers) {
+			for (final ByteBuffer buffer : myBuffers) {
+				if (buffer.capacity() >= minCapacity) {
+					myBuffers.remove(buffer);
+					buffer.clear();
+					return buffer;
+				}
+			}
+		}
+		int size = MIN_BUFFER_SIZE;
+		while (size < minCapacity)
+			size <<= 1;
+		return ByteBuffer.allocateDirect(size);
+	}
+
+	public void release(final ByteBuffer buffer) {
+		if (buffer == null)
+			return;
+		synchronized (myBuffers) {
+			if (myBuffers.size() < myMaxPooled)
+				myBuffers.addFirst(buffer);
+		}
+	}
+
+	/**
+	 * Returns a buffer of twice the capacity holding the contents up to the
+	 * position of the given buffer, which goes back to the pool.
+	 */
+	public ByteBuffer grow(final ByteBuffer buffer) {
+		final ByteBuffer grownBuffer = acquire(buffer.capacity() * 2);
+		buffer.flip();
+		grownBuffer.put(buffer);
+		release(buffer);
+		return grownBuffer;
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch of 4-bit counters estimating how often keys were seen
+ * recently. All counters are halved once the number of increments reaches
+ * ten times the table width, so old popularity fades. Counters are updated
+ * with compare-and-set, so counting a hit takes no lock.
+ */
+public final class FrequencySketch {
+
+	private static final int[] SEEDS = { 0x97cb3127, 0xb3b7e13d, 0xc2b2ae35,
+			0x27d4eb2f };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long COUNTER_MAX = 0xfL;
+
+	// sixteen counters per long, shared by all rows
+	private final AtomicLongArray myTable;
+	private final int myTableMask;
+	private final int mySampleSize;
+	private final AtomicInteger myAdditions = new AtomicInteger();
+
+	public FrequencySketch(final int expectedEntries) {
+		int size = 16;
+		while (size < expectedEntries)
+			size <<= 1;
+		myTable = new AtomicLongArray(size);
+		myTableMask = size - 1;
+		mySampleSize = 10 * size;
+	}
+
+	public void increment(final int key) {
+		final int hash = spread(key);
+		boolean added = false;
+		for (int row = 0; row < SEEDS.length; row++) {
+			final int rowHash = rowHash(hash, row);
+			if (incrementAt(rowHash & myTableMask, counterShift(rowHash)))
+				added = true;
+		}
+		// exactly one increment reaches the sample size and resets
+		if (added && myAdditions.incrementAndGet() == mySampleSize)
+			reset();
+	}
+
+	public int frequency(final int key) {
+		final int hash = spread(key);
+		long frequency = COUNTER_MAX;
+		for (int row = 0; row < SEEDS.length; row++) {
+			final int rowHash = rowHash(hash, row);
+			final long count = (myTable.get(rowHash & myTableMask) >>> counterShift(rowHash))
+					& COUNTER_MAX;
+			frequency = Math.min(frequency, count);
+		}
+		return (int) frequency;
+	}
+
+	private boolean incrementAt(final int index, final int shift) {
+		while (true) {
+			final long counters = myTable.get(index);
+			if (((counters >>> shift) & COUNTER_MAX) == COUNTER_MAX)
+				return false;
+			if (myTable.compareAndSet(index, counters, counters + (1L << shift)))
+				return true;
+		}
+	}
+
+	// increments racing with the halving are kept, the sketch only estimates
+	private void reset() {
+		for (int i = 0; i < myTable.length(); i++) {
+			long counters;
+			do {
+				counters = myTable.get(i);
+			} while (!myTable.compareAndSet(i, counters, (counters >>> 1)
+					& RESET_MASK));
+		}
+		myAdditions.addAndGet(-mySampleSize / 2);
+	}
+
+	private static int rowHash(final int hash, final int row) {
+		int rowHash = hash * SEEDS[row];
+		rowHash ^= rowHash >>> 17;
+		return rowHash;
+	}
+
+	private static int counterShift(final int rowHash) {
+		return ((rowHash >>> 26) & 15) << 2;
+	}
+
+	private static int spread(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x45d9f3b;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+}
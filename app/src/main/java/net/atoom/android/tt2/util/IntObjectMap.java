@@ -0,0 +1,153 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from non-negative int keys to objects, without
+ * boxing or per-entry objects. Entries are visited by slot, from zero to
+ * the capacity, skipping slots whose value is null.
+ */
+public final class IntObjectMap<V> {
+
+	private static final int FREE = -1;
+
+	private int[] myKeys;
+	private Object[] myValues;
+	private int myMask;
+	private int mySize;
+
+	public IntObjectMap(final int expectedSize) {
+		int capacity = 8;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * Copies the given map, later changes to either do not show in the
+	 * other.
+	 */
+	public IntObjectMap(final IntObjectMap<V> map) {
+		myKeys = map.myKeys.clone();
+		myValues = map.myValues.clone();
+		myMask = map.myMask;
+		mySize = map.mySize;
+	}
+
+	public V get(final int key) {
+		// a negative key would match a free slot
+		if (key < 0)
+			return null;
+		for (int index = indexOf(key);; index = (index + 1) & myMask) {
+			final int storedKey = myKeys[index];
+			if (storedKey == key)
+				return valueAt(index);
+			if (storedKey == FREE)
+				return null;
+		}
+	}
+
+	public V put(final int key, final V value) {
+		if (key < 0)
+			throw new IllegalArgumentException("Negative key " + key);
+		if (value == null)
+			throw new IllegalArgumentException("Null value for key " + key);
+		for (int index = indexOf(key);; index = (index + 1) & myMask) {
+			final int storedKey = myKeys[index];
+			if (storedKey == key) {
+				final V previousValue = valueAt(index);
+				myValues[index] = value;
+				return previousValue;
+			}
+			if (storedKey == FREE) {
+				myKeys[index] = key;
+				myValues[index] = value;
+				if (++mySize * 2 > myKeys.length)
+					rehash(myKeys.length * 2);
+				return null;
+			}
+		}
+	}
+
+	public V remove(final int key) {
+		if (key < 0)
+			return null;
+		int index = indexOf(key);
+		while (myKeys[index] != key) {
+			if (myKeys[index] == FREE)
+				return null;
+			index = (index + 1) & myMask;
+		}
+		final V value = valueAt(index);
+		mySize--;
+
+		// shift later entries of the probe chain back into the hole
+		int hole = index;
+		for (int next = (hole + 1) & myMask; myKeys[next] != FREE; next = (next + 1)
+				& myMask) {
+			final int home = indexOf(myKeys[next]);
+			if (((next - home) & myMask) >= ((next - hole) & myMask)) {
+				myKeys[hole] = myKeys[next];
+				myValues[hole] = myValues[next];
+				hole = next;
+			}
+		}
+		myKeys[hole] = FREE;
+		myValues[hole] = null;
+		return value;
+	}
+
+	public int size() {
+		return mySize;
+	}
+
+	public int capacity() {
+		return myKeys.length;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V valueAt(final int slot) {
+		return (V) myValues[slot];
+	}
+
+	private void rehash(final int capacity) {
+		final int[] keys = myKeys;
+		final Object[] values = myValues;
+		allocate(capacity);
+		mySize = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != FREE) {
+				@SuppressWarnings("unchecked")
+				final V value = (V) values[i];
+				put(keys[i], value);
+			}
+		}
+	}
+
+	private void allocate(final int capacity) {
+		myKeys = new int[capacity];
+		myValues = new Object[capacity];
+		myMask = capacity - 1;
+		Arrays.fill(myKeys, FREE);
+	}
+
+	private int indexOf(final int key) {
+		final int hash = key * 0x9e3779b9;
+		return (hash ^ (hash >>> 16)) & myMask;
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2.util;
+
+import java.util.Arrays;
+
+public final class LatencyTracker {
+
+	private final long[] mySamples;
+	private final long[] mySortBuffer;
+	private final int myMinSamples;
+	private int myCount;
+	private int myIndex;
+
+	public LatencyTracker(final int windowSize, final int minSamples) {
+		mySamples = new long[windowSize];
+		mySortBuffer = new long[windowSize];
+		myMinSamples = minSamples;
+	}
+
+	public synchronized void record(final long latency) {
+		mySamples[myIndex] = latency;
+		myIndex = (myIndex + 1) % mySamples.length;
+		if (myCount < mySamples.length)
+			myCount++;
+	}
+
+	/**
+	 * Returns the given percentile over the recorded window, or -1 while
+	 * fewer than the minimum number of samples were recorded.
+	 */
+	public synchronized long getPercentile(final int percentile) {
+		if (myCount < myMinSamples)
+			return -1;
+		System.arraycopy(mySamples, 0, mySortBuffer, 0, myCount);
+		Arrays.sort(mySortBuffer, 0, myCount);
+		final int index = (myCount * percentile + 99) / 100 - 1;
+		return mySortBuffer[Math.max(0, Math.min(index, myCount - 1))];
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2.util;
+
+/**
+ * Token bucket whose refill rate backs off multiplicatively on upstream
+ * failures and recovers additively on successes.
+ */
+public final class TokenBucket {
+
+	private static final double MIN_RATE = 0.5;
+	private static final int RECOVERY_STEPS = 10;
+
+	private final double myMaxRate;
+	private final double myCapacity;
+	private double myRate;
+	private double myTokens;
+	private long myRefillTime;
+
+	public TokenBucket(final double ratePerSecond, final int burst) {
+		myMaxRate = ratePerSecond;
+		myRate = ratePerSecond;
+		myCapacity = burst;
+		myTokens = burst;
+		myRefillTime = System.currentTimeMillis();
+	}
+
+	public void acquire() throws InterruptedException {
+		long waitTime;
+		while ((waitTime = reserveOrWait()) > 0)
+			Thread.sleep(waitTime);
+	}
+
+	public synchronized void backOff() {
+		refill();
+		myRate = Math.max(MIN_RATE, myRate / 2);
+		myTokens = Math.min(myTokens, 1);
+	}
+
+	public synchronized void recover() {
+		refill();
+		myRate = Math.min(myMaxRate, myRate + myMaxRate / RECOVERY_STEPS);
+	}
+
+	private synchronized long reserveOrWait() {
+		refill();
+		if (myTokens >= 1) {
+			myTokens--;
+			return 0;
+		}
+		return Math.max(1, (long) Math.ceil((1 - myTokens) * 1000 / myRate));
+	}
+
+	private void refill() {
+		final long now = System.currentTimeMillis();
+		myTokens = Math.min(myCapacity, myTokens + (now - myRefillTime)
+				* myRate / 1000);
+		myRefillTime = now;
+	}
+}
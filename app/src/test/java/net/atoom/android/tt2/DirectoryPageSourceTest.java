@@ -0,0 +1,100 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectoryPageSourceTest {
+
+	@Rule
+	public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+
+	private final ByteArrayPool myByteArrayPool = new ByteArrayPool(4);
+	private File myDirectory;
+	private DirectoryPageSource myPageSource;
+
+	@Before
+	public void setUp() throws IOException {
+		myDirectory = myTemporaryFolder.newFolder("pages");
+		myPageSource = new DirectoryPageSource(myDirectory);
+	}
+
+	@Test
+	public void testReadsPageFile() throws IOException {
+		final byte[] content = write("101-0", "<html>101</html>");
+		final PageResponse pageResponse = read("101-0", null);
+		assertFalse(pageResponse.isNotModified());
+		assertArrayEquals(content, Arrays.copyOf(pageResponse.getBytes(),
+				pageResponse.getLength()));
+		assertTrue(pageResponse.getETag().startsWith("\"" + content.length
+				+ "-"));
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testMissesAbsentPage() throws IOException {
+		read("102-0", null);
+	}
+
+	@Test
+	public void testRevalidatesUnchangedPage() throws IOException {
+		write("101-0", "<html>101</html>");
+		final PageResponse pageResponse = read("101-0", null);
+		final PageEntity cachedPageEntity = new PageEntity.Builder("101-0")
+				.setVideoText(new byte[960])
+				.setETag(pageResponse.getETag()).build();
+		assertTrue(read("101-0", cachedPageEntity).isNotModified());
+
+		// a rewritten file of another length gets another tag
+		write("101-0", "<html>changed 101</html>");
+		assertFalse(read("101-0", cachedPageEntity).isNotModified());
+	}
+
+	private byte[] write(final String pageId, final String content)
+			throws IOException {
+		final byte[] bytes = content.getBytes("ISO-8859-1");
+		final OutputStream outputStream = new FileOutputStream(new File(
+				myDirectory, pageId));
+		try {
+			outputStream.write(bytes);
+		} finally {
+			outputStream.close();
+		}
+		return bytes;
+	}
+
+	private PageResponse read(final String pageId,
+			final PageEntity cachedPageEntity) throws IOException {
+		return myPageSource.readPage(new PageLoadRequest(pageId,
+				PageLoadPriority.VISIBLE, false, 0), cachedPageEntity,
+				myByteArrayPool);
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpPageSourceTest {
+
+	private StubPageServer myStubPageServer;
+	private HttpPageSource myHttpPageSource;
+	private ByteArrayPool myByteArrayPool;
+
+	@Before
+	public void setUp() throws IOException {
+		myStubPageServer = new StubPageServer();
+		myHttpPageSource = new HttpPageSource(myStubPageServer.getBaseUrl(),
+				new PageLoaderConfig());
+		myByteArrayPool = new ByteArrayPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		myStubPageServer.stop();
+	}
+
+	@Test
+	public void testBurstReusesConnections() throws Exception {
+		final ExecutorService executorService = Executors
+				.newFixedThreadPool(4);
+		try {
+			final List<Future<String>> pages = new ArrayList<Future<String>>();
+			for (int i = 0; i < 20; i++) {
+				final String pageId = (100 + i) + "-0";
+				pages.add(executorService.submit(new Callable<String>() {
+					@Override
+					public String call() throws IOException {
+						return readPage(pageId);
+					}
+				}));
+			}
+			for (int i = 0; i < 20; i++)
+				assertEquals(new String(StubPageServer.getPage((100 + i)
+						+ "-0")), pages.get(i).get());
+		} finally {
+			executorService.shutdown();
+		}
+		assertTrue(myStubPageServer.getRemotePortCount() <= 5);
+	}
+
+	@Test
+	public void testPrewarmSendsHead() throws Exception {
+		myHttpPageSource.prewarm();
+		for (int i = 0; i < 50
+				&& myStubPageServer.getRequestMethods().isEmpty(); i++)
+			Thread.sleep(20);
+		assertEquals("[HEAD]", myStubPageServer.getRequestMethods()
+				.toString());
+	}
+
+	@Test
+	public void testGzipContent() throws IOException {
+		myStubPageServer.setContentEncoding("gzip");
+		assertEquals(new String(StubPageServer.getPage("101-0")),
+				readPage("101-0"));
+	}
+
+	@Test
+	public void testDeflateContent() throws IOException {
+		myStubPageServer.setContentEncoding("deflate");
+		assertEquals(new String(StubPageServer.getPage("101-0")),
+				readPage("101-0"));
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testMissingPage() throws IOException {
+		myStubPageServer.setMissing("999-0");
+		readPage("999-0");
+	}
+
+	private String readPage(final String pageId) throws IOException {
+		final PageResponse pageResponse = myHttpPageSource.readPage(
+				new PageLoadRequest(pageId, PageLoadPriority.VISIBLE, true, 0),
+				null, myByteArrayPool);
+		final String page = new String(pageResponse.getBytes(), 0,
+				pageResponse.getLength());
+		myByteArrayPool.release(pageResponse.getBytes());
+		return page;
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+
+/**
+ * Page source for tests, serving pages kept in memory and recording which
+ * pages were read at what priority. Reads of a held page block until it
+ * is released.
+ */
+final class MemoryPageSource implements PageSource {
+
+	private static final long READ_TIMEOUT = 10000;
+
+	// guarded by this
+	private final Map<String, byte[]> myPages = new HashMap<String, byte[]>();
+	private final Map<String, String> myETags = new HashMap<String, String>();
+	private final Map<String, CountDownLatch> myHeldPages = new HashMap<String, CountDownLatch>();
+	private final List<String> myReads = new ArrayList<String>();
+	private final List<PageLoadPriority> myReadPriorities = new ArrayList<PageLoadPriority>();
+	private int myVersion;
+
+	/**
+	 * Returns a page file with the given header lines, like "pn=ns101-1",
+	 * and the text on the row below the header row.
+	 */
+	public static byte[] page(final String text, final String... headers) {
+		final StringBuilder page = new StringBuilder();
+		for (final String header : headers)
+			page.append(header).append('\n');
+		page.append("<pre>");
+		for (int i = 0; i < 25 * 40; i++)
+			page.append(i >= 80 && i - 80 < text.length() ? text.charAt(i - 80)
+					: ' ');
+		page.append("</pre>\n");
+		final byte[] bytes = new byte[page.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) page.charAt(i);
+		return bytes;
+	}
+
+	public synchronized void put(final String pageId, final byte[] content) {
+		myPages.put(pageId, content);
+		myETags.put(pageId, "\"" + ++myVersion + "\"");
+	}
+
+	public synchronized void hold(final String pageId) {
+		myHeldPages.put(pageId, new CountDownLatch(1));
+	}
+
+	public synchronized void release(final String pageId) {
+		myHeldPages.remove(pageId).countDown();
+	}
+
+	public synchronized List<String> getReads() {
+		return new ArrayList<String>(myReads);
+	}
+
+	/**
+	 * Returns the priority of the first read of the page, or null.
+	 */
+	public synchronized PageLoadPriority getReadPriority(final String pageId) {
+		final int index = myReads.indexOf(pageId);
+		return index >= 0 ? myReadPriorities.get(index) : null;
+	}
+
+	/**
+	 * Waits until the page was read the given number of times.
+	 */
+	public void awaitReads(final String pageId, final int count)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + READ_TIMEOUT;
+		while (countReads(pageId) < count) {
+			if (System.currentTimeMillis() > deadline)
+				throw new AssertionError("Page " + pageId + " was not read");
+			Thread.sleep(5);
+		}
+	}
+
+	public synchronized int countReads(final String pageId) {
+		int count = 0;
+		for (final String readPageId : myReads) {
+			if (readPageId.equals(pageId))
+				count++;
+		}
+		return count;
+	}
+
+	@Override
+	public PageResponse readPage(final PageLoadRequest pageLoadRequest,
+			final PageEntity cachedPageEntity,
+			final ByteArrayPool byteArrayPool) throws IOException {
+		final String pageId = pageLoadRequest.getPageId();
+		final CountDownLatch heldPage;
+		synchronized (this) {
+			myReads.add(pageId);
+			myReadPriorities.add(pageLoadRequest.getPageLoadPriority());
+			heldPage = myHeldPages.get(pageId);
+		}
+		if (heldPage != null) {
+			try {
+				if (!heldPage.await(READ_TIMEOUT, TimeUnit.MILLISECONDS))
+					throw new InterruptedIOException("Held " + pageId);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		final byte[] content;
+		final String eTag;
+		synchronized (this) {
+			content = myPages.get(pageId);
+			eTag = myETags.get(pageId);
+		}
+		if (content == null)
+			throw new FileNotFoundException(pageId);
+		if (cachedPageEntity != null && eTag.equals(cachedPageEntity.getETag()))
+			return PageResponse.notModified();
+		// the fetcher returns the bytes to the pool, so they are copied
+		return PageResponse.read(new ByteArrayInputStream(content),
+				content.length, byteArrayPool, eTag, null);
+	}
+
+	@Override
+	public void prewarm() {
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+
+import org.junit.Test;
+
+public class MirrorPageSourceTest {
+
+	private static final long RETRY_DELAY = 60000;
+
+	private final ByteArrayPool myByteArrayPool = new ByteArrayPool(4);
+
+	@Test
+	public void testFallsBackAndSkipsFailingPrimary() throws IOException {
+		final StubPageSource primary = new StubPageSource(new IOException(
+				"down"));
+		final StubPageSource secondary = new StubPageSource(null);
+		final MirrorPageSource mirrorPageSource = mirror(primary, secondary);
+
+		assertSame(secondary.myPageResponse, read(mirrorPageSource));
+		assertSame(secondary.myPageResponse, read(mirrorPageSource));
+		assertEquals(1, primary.myReads);
+		assertEquals(2, secondary.myReads);
+	}
+
+	@Test
+	public void testRetriesPrimaryMissingPage() throws IOException {
+		final StubPageSource primary = new StubPageSource(
+				new FileNotFoundException("101-0"));
+		final StubPageSource secondary = new StubPageSource(null);
+		final MirrorPageSource mirrorPageSource = mirror(primary, secondary);
+
+		read(mirrorPageSource);
+		read(mirrorPageSource);
+		assertEquals(2, primary.myReads);
+	}
+
+	@Test
+	public void testAlwaysTriesLastSource() {
+		final StubPageSource primary = new StubPageSource(new IOException(
+				"down"));
+		final StubPageSource secondary = new StubPageSource(new IOException(
+				"also down"));
+		final MirrorPageSource mirrorPageSource = mirror(primary, secondary);
+		for (int i = 0; i < 2; i++) {
+			try {
+				read(mirrorPageSource);
+				fail();
+			} catch (final IOException e) {
+				assertEquals("also down", e.getMessage());
+			}
+		}
+		assertEquals(1, primary.myReads);
+		assertEquals(2, secondary.myReads);
+	}
+
+	@Test
+	public void testKeepsFailedPrimaryWhenAborted() throws IOException {
+		final StubPageSource primary = new StubPageSource(new IOException(
+				"aborted"));
+		final StubPageSource secondary = new StubPageSource(null);
+		final MirrorPageSource mirrorPageSource = mirror(primary, secondary);
+		final PageLoadRequest pageLoadRequest = new PageLoadRequest("101-0",
+				PageLoadPriority.VISIBLE, false, 0);
+		pageLoadRequest.abort();
+		try {
+			mirrorPageSource.readPage(pageLoadRequest, null, myByteArrayPool);
+			fail();
+		} catch (final IOException e) {
+			assertEquals("aborted", e.getMessage());
+		}
+
+		// the abort was not held against the primary
+		primary.myFailure = null;
+		assertSame(primary.myPageResponse, read(mirrorPageSource));
+		assertEquals(0, secondary.myReads);
+	}
+
+	private MirrorPageSource mirror(final PageSource... pageSources) {
+		return new MirrorPageSource(Arrays.asList(pageSources), RETRY_DELAY);
+	}
+
+	private PageResponse read(final MirrorPageSource mirrorPageSource)
+			throws IOException {
+		return mirrorPageSource.readPage(new PageLoadRequest("101-0",
+				PageLoadPriority.VISIBLE, false, 0), null, myByteArrayPool);
+	}
+
+	private static final class StubPageSource implements PageSource {
+
+		private final PageResponse myPageResponse = PageResponse.content(
+				new byte[0], 0, null, null);
+		private IOException myFailure;
+		private int myReads;
+
+		public StubPageSource(final IOException failure) {
+			myFailure = failure;
+		}
+
+		@Override
+		public PageResponse readPage(final PageLoadRequest pageLoadRequest,
+				final PageEntity cachedPageEntity,
+				final ByteArrayPool byteArrayPool) throws IOException {
+			myReads++;
+			if (myFailure != null)
+				throw myFailure;
+			return myPageResponse;
+		}
+
+		@Override
+		public void prewarm() {
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class PageCacheTest {
+
+	private static final long BUDGET = 1024 * 1024;
+
+	@Test
+	public void testGetsAndRemovesPages() {
+		final PageCache pageCache = new PageCache(BUDGET);
+		final PageEntity page = page("101-0");
+		final PageEntity otherPage = page("201-0");
+		pageCache.put(key("101-0"), page, false);
+		pageCache.put(key("201-0"), otherPage, true);
+		assertSame(page, pageCache.get(key("101-0")));
+		assertSame(otherPage, pageCache.peek(key("201-0")));
+		assertNull(pageCache.get(key("101-1")));
+
+		pageCache.remove(key("101-0"));
+		assertNull(pageCache.get(key("101-0")));
+		assertSame(otherPage, pageCache.get(key("201-0")));
+	}
+
+	@Test
+	public void testReplacesPage() {
+		final PageCache pageCache = new PageCache(BUDGET);
+		pageCache.put(key("101-0"), page("101-0"), false);
+		final PageEntity revalidated = page("101-0");
+		pageCache.put(key("101-0"), revalidated, true);
+		assertSame(revalidated, pageCache.get(key("101-0")));
+	}
+
+	@Test
+	public void testKeepsPagesOfConcurrentMagazines()
+			throws InterruptedException {
+		final PageCache pageCache = new PageCache(BUDGET);
+		final AtomicReference<AssertionError> failure = new AtomicReference<AssertionError>();
+		final Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			final int magazine = i + 1;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int page = 0; page < 100; page++) {
+							final int pageKey = PageId.of(magazine * 100
+									+ page, 0);
+							final PageEntity pageEntity = page(PageId
+									.toString(pageKey));
+							pageCache.put(pageKey, pageEntity, page % 2 == 0);
+							assertSame(pageEntity, pageCache.get(pageKey));
+						}
+					} catch (final AssertionError e) {
+						failure.set(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (final Thread thread : threads)
+			thread.join();
+		if (failure.get() != null)
+			throw failure.get();
+		for (int magazine = 1; magazine <= threads.length; magazine++) {
+			for (int page = 0; page < 100; page++) {
+				final int pageKey = PageId.of(magazine * 100 + page, 0);
+				assertEquals(PageId.toString(pageKey),
+						pageCache.peek(pageKey).getPageId());
+			}
+		}
+	}
+
+	@Test
+	public void testEvictsByRetainedBytes() throws InterruptedException {
+		final int weight = page("101-0").estimateRetainedBytes();
+		final PageCache pageCache = new PageCache(4 * weight);
+		for (int page = 101; page <= 104; page++)
+			put(pageCache, page + "-0", false);
+		for (int page = 101; page <= 104; page++)
+			assertNotNull(pageCache.peek(key(page + "-0")));
+
+		// a page with many links weighs as much as two plain pages
+		final PageEntity.Builder builder = new PageEntity.Builder("105-0")
+				.setVideoText(new byte[960]);
+		for (int i = 0; i < weight / 4; i++)
+			builder.addLinkedPageKey(PageId.of(200 + i % 800, i / 800));
+		Thread.sleep(1);
+		pageCache.put(key("105-0"), builder.build(), false);
+		assertNull(pageCache.peek(key("101-0")));
+		assertNull(pageCache.peek(key("102-0")));
+		assertNotNull(pageCache.peek(key("103-0")));
+		assertNotNull(pageCache.peek(key("104-0")));
+		assertNotNull(pageCache.peek(key("105-0")));
+	}
+
+	@Test
+	public void testRealHitProtectsPreloadedPage() throws InterruptedException {
+		final int weight = page("101-0").estimateRetainedBytes();
+		final PageCache pageCache = new PageCache(3 * weight);
+		put(pageCache, "101-0", true);
+		put(pageCache, "102-0", true);
+		put(pageCache, "103-0", true);
+		pageCache.get(key("101-0"));
+
+		// only peeked at, so 101-0 is the least recently used page
+		Thread.sleep(1);
+		put(pageCache, "102-0", true);
+		put(pageCache, "103-0", true);
+		pageCache.peek(key("101-0"));
+		put(pageCache, "104-0", true);
+		assertNotNull(pageCache.peek(key("101-0")));
+		assertNull(pageCache.peek(key("102-0")));
+		assertNotNull(pageCache.peek(key("104-0")));
+	}
+
+	@Test
+	public void testDemotesOverflowOfProtectedSegment()
+			throws InterruptedException {
+		final int weight = page("101-0").estimateRetainedBytes();
+		final PageCache pageCache = new PageCache(5 * weight);
+		for (int page = 101; page <= 104; page++)
+			put(pageCache, page + "-0", false);
+		put(pageCache, "201-0", true);
+
+		// 101-0 leaves the protected segment and goes before the newer preload
+		put(pageCache, "105-0", false);
+		assertNull(pageCache.peek(key("101-0")));
+		assertNotNull(pageCache.peek(key("201-0")));
+		assertNotNull(pageCache.peek(key("105-0")));
+	}
+
+	@Test
+	public void testKeepsMorePopularVictim() throws InterruptedException {
+		final int weight = page("101-0").estimateRetainedBytes();
+		final PageCache pageCache = new PageCache(2 * weight);
+		put(pageCache, "101-0", false);
+		for (int i = 0; i < 3; i++)
+			pageCache.get(key("101-0"));
+		put(pageCache, "102-0", false);
+
+		// 101-0 is demoted, but visited more often than the preload
+		put(pageCache, "201-0", true);
+		assertNotNull(pageCache.peek(key("101-0")));
+		assertNotNull(pageCache.peek(key("102-0")));
+		assertNull(pageCache.peek(key("201-0")));
+	}
+
+	// sleeps first so that the access times of the pages differ
+	private static void put(final PageCache pageCache, final String pageId,
+			final boolean speculative) throws InterruptedException {
+		Thread.sleep(1);
+		pageCache.put(key(pageId), page(pageId), speculative);
+	}
+
+	private static int key(final String pageId) {
+		return PageId.parse(pageId);
+	}
+
+	private static PageEntity page(final String pageId) {
+		return new PageEntity.Builder(pageId).setVideoText(new byte[960])
+				.build();
+	}
+}
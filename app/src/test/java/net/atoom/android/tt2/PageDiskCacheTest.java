@@ -0,0 +1,229 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PageDiskCacheTest {
+
+	private static final int FILE_HEADER_LENGTH = 8;
+	private static final int RECORD_HEADER_LENGTH = 12;
+	private static final int MAX_SIZE = 1024 * 1024;
+
+	@Rule
+	public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+
+	private File myDirectory;
+	private File myFile;
+
+	@Before
+	public void setUp() throws IOException {
+		myDirectory = myTemporaryFolder.newFolder("cache");
+		myFile = new File(myDirectory, "pages.log");
+	}
+
+	@Test
+	public void testRestoresPagesAfterReopen() {
+		final PageDiskCache pageDiskCache = new PageDiskCache(myDirectory,
+				MAX_SIZE);
+		put(pageDiskCache, "101-0");
+		pageDiskCache.put("102-0", content("102-0"), 1000, null, null);
+
+		final PageDiskCache reopened = new PageDiskCache(myDirectory, MAX_SIZE);
+		assertPage(reopened, "101-0");
+		final PageResponse pageResponse = reopened.get("102-0");
+		assertNull(pageResponse.getETag());
+		assertNull(pageResponse.getLastModified());
+		assertNull(reopened.get("103-0"));
+	}
+
+	@Test
+	public void testTruncatesTornTail() throws IOException {
+		final PageDiskCache pageDiskCache = new PageDiskCache(myDirectory,
+				MAX_SIZE);
+		put(pageDiskCache, "101-0");
+		final long intactLength = myFile.length();
+		put(pageDiskCache, "102-0");
+		setLength(myFile.length() - 10);
+
+		final PageDiskCache reopened = new PageDiskCache(myDirectory, MAX_SIZE);
+		assertPage(reopened, "101-0");
+		assertNull(reopened.get("102-0"));
+		assertEquals(intactLength, myFile.length());
+
+		// appending goes on after the last intact record
+		put(reopened, "103-0");
+		final PageDiskCache reopenedAgain = new PageDiskCache(myDirectory,
+				MAX_SIZE);
+		assertPage(reopenedAgain, "101-0");
+		assertPage(reopenedAgain, "103-0");
+	}
+
+	@Test
+	public void testSkipsRecordFailingChecksum() throws IOException {
+		final PageDiskCache pageDiskCache = new PageDiskCache(myDirectory,
+				MAX_SIZE);
+		put(pageDiskCache, "101-0");
+		put(pageDiskCache, "102-0");
+		// a byte in the content of the first record
+		flipByte(FILE_HEADER_LENGTH + RECORD_HEADER_LENGTH + 100);
+
+		final PageDiskCache reopened = new PageDiskCache(myDirectory, MAX_SIZE);
+		assertNull(reopened.get("101-0"));
+		assertPage(reopened, "102-0");
+	}
+
+	@Test
+	public void testDropsRecordCorruptedAfterLoad() throws IOException {
+		final PageDiskCache pageDiskCache = new PageDiskCache(myDirectory,
+				MAX_SIZE);
+		put(pageDiskCache, "101-0");
+		put(pageDiskCache, "102-0");
+		flipByte(FILE_HEADER_LENGTH + RECORD_HEADER_LENGTH + 100);
+
+		assertNull(pageDiskCache.get("101-0"));
+		assertPage(pageDiskCache, "102-0");
+	}
+
+	@Test
+	public void testTruncatesAtBadRecordHeader() throws IOException {
+		final PageDiskCache pageDiskCache = new PageDiskCache(myDirectory,
+				MAX_SIZE);
+		put(pageDiskCache, "101-0");
+		final long intactLength = myFile.length();
+		put(pageDiskCache, "102-0");
+		put(pageDiskCache, "103-0");
+		// the magic of the second record
+		flipByte(intactLength);
+
+		final PageDiskCache reopened = new PageDiskCache(myDirectory, MAX_SIZE);
+		assertPage(reopened, "101-0");
+		assertNull(reopened.get("102-0"));
+		assertNull(reopened.get("103-0"));
+		assertEquals(intactLength, myFile.length());
+	}
+
+	@Test
+	public void testDiscardsFileWithBadHeader() throws IOException {
+		final PageDiskCache pageDiskCache = new PageDiskCache(myDirectory,
+				MAX_SIZE);
+		put(pageDiskCache, "101-0");
+		flipByte(0);
+
+		final PageDiskCache reopened = new PageDiskCache(myDirectory, MAX_SIZE);
+		assertNull(reopened.get("101-0"));
+		assertEquals(FILE_HEADER_LENGTH, myFile.length());
+
+		put(reopened, "102-0");
+		assertPage(new PageDiskCache(myDirectory, MAX_SIZE), "102-0");
+	}
+
+	@Test
+	public void testCompactionKeepsRecentlyUsedPages() throws IOException {
+		final long recordLength = measureRecordLength();
+		// compacts on the tenth record, keeping the five most recently used
+		final long maxSize = 10 * recordLength;
+		final PageDiskCache pageDiskCache = new PageDiskCache(myDirectory,
+				maxSize);
+		for (int page = 100; page < 109; page++)
+			put(pageDiskCache, page + "-0");
+		assertPage(pageDiskCache, "100-0");
+		put(pageDiskCache, "109-0");
+		assertEquals(FILE_HEADER_LENGTH + 5 * recordLength, myFile.length());
+
+		// the reopened file keeps the order of use
+		final PageDiskCache reopened = new PageDiskCache(myDirectory, maxSize);
+		for (int page = 110; page < 114; page++)
+			put(reopened, page + "-0");
+		reopened.touch("106-0");
+		put(reopened, "114-0");
+
+		final PageDiskCache reopenedAgain = new PageDiskCache(myDirectory,
+				maxSize);
+		for (int page = 100; page < 106; page++)
+			assertNull(reopenedAgain.get(page + "-0"));
+		for (int page = 107; page < 111; page++)
+			assertNull(reopenedAgain.get(page + "-0"));
+		assertPage(reopenedAgain, "106-0");
+		for (int page = 111; page < 115; page++)
+			assertPage(reopenedAgain, page + "-0");
+	}
+
+	private long measureRecordLength() throws IOException {
+		final File directory = myTemporaryFolder.newFolder("measure");
+		put(new PageDiskCache(directory, MAX_SIZE), "100-0");
+		return new File(directory, "pages.log").length() - FILE_HEADER_LENGTH;
+	}
+
+	private static void put(final PageDiskCache pageDiskCache,
+			final String pageId) {
+		pageDiskCache.put(pageId, content(pageId), 1000, "\"" + pageId
+				+ "\"", "Mon, 01 Jan 2024 00:00:00 GMT");
+	}
+
+	private static void assertPage(final PageDiskCache pageDiskCache,
+			final String pageId) {
+		final PageResponse pageResponse = pageDiskCache.get(pageId);
+		assertNotNull(pageId, pageResponse);
+		assertEquals(1000, pageResponse.getLength());
+		assertEquals(new String(content(pageId)),
+				new String(pageResponse.getBytes(), 0, 1000));
+		assertEquals("\"" + pageId + "\"", pageResponse.getETag());
+		assertEquals("Mon, 01 Jan 2024 00:00:00 GMT",
+				pageResponse.getLastModified());
+	}
+
+	private static byte[] content(final String pageId) {
+		final byte[] content = new byte[1000];
+		for (int i = 0; i < content.length; i++)
+			content[i] = (byte) pageId.charAt(i % pageId.length());
+		return content;
+	}
+
+	private void setLength(final long length) throws IOException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(myFile,
+				"rw");
+		try {
+			randomAccessFile.setLength(length);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private void flipByte(final long position) throws IOException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(myFile,
+				"rw");
+		try {
+			randomAccessFile.seek(position);
+			final int value = randomAccessFile.read();
+			randomAccessFile.seek(position);
+			randomAccessFile.write(value ^ 0xff);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+}
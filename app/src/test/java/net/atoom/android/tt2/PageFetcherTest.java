@@ -0,0 +1,202 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PageFetcherTest {
+
+	private StubPageServer myStubPageServer;
+	private PageLoaderConfig myPageLoaderConfig;
+
+	@Before
+	public void setUp() throws IOException {
+		myStubPageServer = new StubPageServer();
+		myPageLoaderConfig = new PageLoaderConfig();
+		myPageLoaderConfig.setBaseUrl(myStubPageServer.getBaseUrl());
+		myPageLoaderConfig.setRetryBackoff(10);
+	}
+
+	@After
+	public void tearDown() {
+		myStubPageServer.stop();
+	}
+
+	@Test
+	public void testReadTimeout() throws IOException {
+		myPageLoaderConfig.setReadTimeout(200);
+		myPageLoaderConfig.setMaxRetries(0);
+		myStubPageServer.delayNext("102-0", 2000, 1);
+		final long start = System.currentTimeMillis();
+		try {
+			fetch(new PageFetcher(myPageLoaderConfig, 1, 1), "102-0");
+			fail();
+		} catch (final SocketTimeoutException e) {
+			assertTrue(System.currentTimeMillis() - start < 2000);
+		}
+	}
+
+	@Test
+	public void testRetriesServerErrors() throws IOException {
+		myStubPageServer.failNext("102-0", 2);
+		assertEquals(new String(StubPageServer.getPage("102-0")), fetch(
+				new PageFetcher(myPageLoaderConfig, 1, 1), "102-0"));
+		assertEquals(3, myStubPageServer.getHitCount("102-0"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testGivesUpAfterMaxRetries() throws IOException {
+		myStubPageServer.failNext("102-0", 3);
+		fetch(new PageFetcher(myPageLoaderConfig, 1, 1), "102-0");
+	}
+
+	@Test
+	public void testDoesNotRetryMissingPage() throws IOException {
+		myPageLoaderConfig.setNioFetch(true);
+		myStubPageServer.setMissing("999-0");
+		try {
+			fetch(new PageFetcher(myPageLoaderConfig, 1, 1), "999-0");
+			fail();
+		} catch (final FileNotFoundException e) {
+			assertEquals(1, myStubPageServer.getHitCount("999-0"));
+		}
+	}
+
+	@Test
+	public void testHedgesSlowFetch() throws IOException {
+		final PageFetcher pageFetcher = new PageFetcher(myPageLoaderConfig,
+				1, 1);
+		// fill the latency window so the hedge delay is known
+		for (int i = 0; i < 20; i++)
+			fetch(pageFetcher, (100 + i) + "-0");
+		myStubPageServer.delayNext("200-0", 3000, 1);
+		final long start = System.currentTimeMillis();
+		assertEquals(new String(StubPageServer.getPage("200-0")), fetch(
+				pageFetcher, "200-0"));
+		assertTrue(System.currentTimeMillis() - start < 3000);
+		assertEquals(2, myStubPageServer.getHitCount("200-0"));
+	}
+
+	@Test
+	public void testPreloadProbesOpenCircuit() throws Exception {
+		myPageLoaderConfig.setMaxRetries(0);
+		myPageLoaderConfig.setFailureThreshold(2);
+		myPageLoaderConfig.setCircuitOpenDuration(100);
+		final PageFetcher pageFetcher = new PageFetcher(myPageLoaderConfig,
+				1, 1);
+		myStubPageServer.failNext("102-0", 2);
+		for (int i = 0; i < 2; i++) {
+			try {
+				fetch(pageFetcher, "102-0");
+				fail();
+			} catch (final IOException e) {
+			}
+		}
+		try {
+			fetch(pageFetcher, "103-0", PageLoadPriority.NEIGHBOUR);
+			fail();
+		} catch (final PageLoadException e) {
+			assertEquals(PageLoadException.Reason.OFFLINE, e.getReason());
+		}
+		Thread.sleep(150);
+		assertEquals(new String(StubPageServer.getPage("103-0")), fetch(
+				pageFetcher, "103-0", PageLoadPriority.NEIGHBOUR));
+		assertEquals(1, myStubPageServer.getHitCount("103-0"));
+	}
+
+	@Test
+	public void testSourceExceptionEndsProbe() throws Exception {
+		myPageLoaderConfig.setMaxRetries(0);
+		myPageLoaderConfig.setFailureThreshold(1);
+		myPageLoaderConfig.setCircuitOpenDuration(50);
+		final FailingPageSource failingPageSource = new FailingPageSource();
+		myPageLoaderConfig.setPageSource(failingPageSource);
+		final PageFetcher pageFetcher = new PageFetcher(myPageLoaderConfig,
+				1, 1);
+		failingPageSource.myFailure = new IOException();
+		try {
+			fetchNotModified(pageFetcher);
+			fail();
+		} catch (final IOException e) {
+		}
+		Thread.sleep(70);
+		failingPageSource.myFailure = new IllegalStateException();
+		try {
+			fetchNotModified(pageFetcher);
+			fail();
+		} catch (final IllegalStateException e) {
+		}
+		// the failed probe reopened the circuit for twice as long
+		Thread.sleep(150);
+		failingPageSource.myFailure = null;
+		assertTrue(fetchNotModified(pageFetcher));
+	}
+
+	private static boolean fetchNotModified(final PageFetcher pageFetcher)
+			throws IOException {
+		return pageFetcher.fetch(
+				new PageLoadRequest("102-0", PageLoadPriority.VISIBLE, true,
+						0), null).isNotModified();
+	}
+
+	private static String fetch(final PageFetcher pageFetcher,
+			final String pageId) throws IOException {
+		return fetch(pageFetcher, pageId, PageLoadPriority.VISIBLE);
+	}
+
+	private static String fetch(final PageFetcher pageFetcher,
+			final String pageId, final PageLoadPriority pageLoadPriority)
+			throws IOException {
+		final PageResponse pageResponse = pageFetcher.fetch(
+				new PageLoadRequest(pageId, pageLoadPriority, true, 0), null);
+		final String page = new String(pageResponse.getBytes(), 0,
+				pageResponse.getLength());
+		pageFetcher.release(pageResponse);
+		return page;
+	}
+
+	private static final class FailingPageSource implements PageSource {
+
+		private volatile Exception myFailure;
+
+		@Override
+		public PageResponse readPage(final PageLoadRequest pageLoadRequest,
+				final PageEntity cachedPageEntity,
+				final ByteArrayPool byteArrayPool) throws IOException {
+			if (myFailure instanceof IOException)
+				throw (IOException) myFailure;
+			if (myFailure != null)
+				throw (RuntimeException) myFailure;
+			return PageResponse.notModified();
+		}
+
+		@Override
+		public void prewarm() {
+		}
+	}
+}
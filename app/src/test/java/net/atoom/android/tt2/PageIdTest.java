@@ -0,0 +1,71 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PageIdTest {
+
+	@Test
+	public void testParsesPageIds() {
+		final int pageKey = PageId.parse("123-4");
+		assertEquals(1, PageId.getMagazine(pageKey));
+		assertEquals(123, PageId.getPage(pageKey));
+		assertEquals(4, PageId.getSubPage(pageKey));
+		assertEquals(pageKey, PageId.parse("123/4"));
+		assertEquals(PageId.of(123, 0), PageId.parse("123"));
+		assertEquals(PageId.of(899, 255), PageId.parse("899-255"));
+		assertEquals(PageId.of(100, 1), PageId.parse("100-001"));
+	}
+
+	@Test
+	public void testRejectsMalformedPageIds() {
+		assertEquals(PageId.INVALID, PageId.parse(null));
+		assertEquals(PageId.INVALID, PageId.parse(""));
+		assertEquals(PageId.INVALID, PageId.parse("12"));
+		assertEquals(PageId.INVALID, PageId.parse("1a1"));
+		assertEquals(PageId.INVALID, PageId.parse("101-"));
+		assertEquals(PageId.INVALID, PageId.parse("101_1"));
+		assertEquals(PageId.INVALID, PageId.parse("101-x"));
+		assertEquals(PageId.INVALID, PageId.parse("101-256"));
+		assertEquals(PageId.INVALID, PageId.parse("101-0001"));
+		assertEquals(PageId.INVALID, PageId.parse("1011"));
+	}
+
+	@Test
+	public void testFormatsPageIds() {
+		assertEquals("101-0", PageId.toString(PageId.parse("101")));
+		assertEquals("899-255", PageId.toString(PageId.parse("899/255")));
+		assertEquals("100-1", PageId.toString(PageId.of(100, 1)));
+	}
+
+	@Test
+	public void testNormalizesPageIds() {
+		assertEquals("101-0", PageIdUtil.normalize(null));
+		assertEquals("101-0", PageIdUtil.normalize(""));
+		assertEquals("101-0", PageIdUtil.normalize("101"));
+		assertEquals("101-2", PageIdUtil.normalize("101/2"));
+
+		// a zero padded subpage is the same page
+		assertEquals("101-1", PageIdUtil.normalize("101-01"));
+
+		// ids that do not parse keep the old string handling
+		assertEquals("abc-0", PageIdUtil.normalize("abc"));
+		assertEquals("101-x", PageIdUtil.normalize("101/x"));
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+public class PageLoadHandleTest {
+
+	private final List<Runnable> myRunnables = new ArrayList<Runnable>();
+	private final List<PageEntity> myPageEntities = new ArrayList<PageEntity>();
+
+	private final Executor myExecutor = new Executor() {
+		@Override
+		public void execute(final Runnable runnable) {
+			myRunnables.add(runnable);
+		}
+	};
+
+	private final PageLoadCompletionHandler myCompletionHandler = new PageLoadCompletionHandler() {
+		@Override
+		public void pageLoadCompleted(final PageEntity pageEntity) {
+			myPageEntities.add(pageEntity);
+		}
+	};
+
+	@Test
+	public void testDeliversStaleCopyThenChangedResult() {
+		final PageLoadHandle pageLoadHandle = handle();
+		final PageEntity stale = page(0);
+		final PageEntity changed = page(1);
+		pageLoadHandle.completeStale(stale);
+		runAll();
+		pageLoadHandle.complete(changed, null);
+		runAll();
+		assertEquals(2, myPageEntities.size());
+		assertSame(stale, myPageEntities.get(0));
+		assertSame(changed, myPageEntities.get(1));
+	}
+
+	@Test
+	public void testSkipsUnchangedResult() {
+		final PageLoadHandle pageLoadHandle = handle();
+		final PageEntity stale = page(0);
+		pageLoadHandle.completeStale(stale);
+		pageLoadHandle.complete(page(0), null);
+		runAll();
+		assertEquals(1, myPageEntities.size());
+		assertSame(stale, myPageEntities.get(0));
+	}
+
+	@Test
+	public void testResultOvertakesPendingStaleCopy() {
+		final PageLoadHandle pageLoadHandle = handle();
+		final PageEntity changed = page(1);
+		pageLoadHandle.completeStale(page(0));
+		pageLoadHandle.complete(changed, null);
+		assertEquals(1, myRunnables.size());
+		runAll();
+		assertEquals(1, myPageEntities.size());
+		assertSame(changed, myPageEntities.get(0));
+	}
+
+	@Test
+	public void testReusesHandleForDeliveries() {
+		final PageLoadHandle pageLoadHandle = handle();
+		pageLoadHandle.completeStale(page(0));
+		assertSame(pageLoadHandle, myRunnables.get(0));
+		runAll();
+		pageLoadHandle.complete(page(1), null);
+		assertSame(pageLoadHandle, myRunnables.get(0));
+	}
+
+	private PageLoadHandle handle() {
+		return new PageLoadHandle(null, "101-0", myCompletionHandler,
+				myExecutor);
+	}
+
+	private void runAll() {
+		while (!myRunnables.isEmpty())
+			myRunnables.remove(0).run();
+	}
+
+	private static PageEntity page(final int content) {
+		final byte[] videoText = new byte[960];
+		videoText[0] = (byte) content;
+		return new PageEntity.Builder("101-0").setVideoText(videoText)
+				.build();
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class PageLoadQueueTest {
+
+	@Test
+	public void testTakesMostUrgentFirst() throws InterruptedException {
+		final PageLoadQueue pageLoadQueue = new PageLoadQueue(4);
+		final PageLoadRequest link = request("101-0", PageLoadPriority.LINK);
+		final PageLoadRequest neighbour = request("102-0",
+				PageLoadPriority.NEIGHBOUR);
+		assertNull(pageLoadQueue.offer(link));
+		assertNull(pageLoadQueue.offer(neighbour));
+		assertSame(neighbour, pageLoadQueue.take());
+		assertSame(link, pageLoadQueue.take());
+	}
+
+	@Test
+	public void testDropsOldestOfLowestPriority() throws InterruptedException {
+		final PageLoadQueue pageLoadQueue = new PageLoadQueue(2);
+		final PageLoadRequest oldLink = request("101-0", PageLoadPriority.LINK);
+		final PageLoadRequest neighbour = request("102-0",
+				PageLoadPriority.NEIGHBOUR);
+		final PageLoadRequest newLink = request("103-0", PageLoadPriority.LINK);
+		pageLoadQueue.offer(oldLink);
+		pageLoadQueue.offer(neighbour);
+		assertSame(oldLink, pageLoadQueue.offer(newLink));
+		assertSame(neighbour, pageLoadQueue.take());
+		assertSame(newLink, pageLoadQueue.take());
+	}
+
+	@Test
+	public void testDropsOfferedRequestWhenLeastValuable() {
+		final PageLoadQueue pageLoadQueue = new PageLoadQueue(1);
+		pageLoadQueue.offer(request("102-0", PageLoadPriority.NEIGHBOUR));
+		final PageLoadRequest link = request("103-0", PageLoadPriority.LINK);
+		assertSame(link, pageLoadQueue.offer(link));
+	}
+
+	@Test
+	public void testNeverDropsAwaitedRequest() throws InterruptedException {
+		final PageLoadQueue pageLoadQueue = new PageLoadQueue(1);
+		final PageLoadRequest awaited = request("101-0",
+				PageLoadPriority.BACKGROUND);
+		awaited.addPageLoadHandle(new PageLoadHandle(null, "101-0", null,
+				null));
+		final PageLoadRequest neighbour = request("102-0",
+				PageLoadPriority.NEIGHBOUR);
+		pageLoadQueue.offer(awaited);
+		assertSame(neighbour, pageLoadQueue.offer(neighbour));
+
+		// with only awaited requests queued nothing is dropped
+		final PageLoadRequest alsoAwaited = request("103-0",
+				PageLoadPriority.LINK);
+		alsoAwaited.addPageLoadHandle(new PageLoadHandle(null, "103-0", null,
+				null));
+		assertNull(pageLoadQueue.offer(alsoAwaited));
+		assertSame(alsoAwaited, pageLoadQueue.take());
+		assertSame(awaited, pageLoadQueue.take());
+	}
+
+	private static PageLoadRequest request(final String pageId,
+			final PageLoadPriority pageLoadPriority) {
+		return new PageLoadRequest(pageId, pageLoadPriority, false, 0);
+	}
+}
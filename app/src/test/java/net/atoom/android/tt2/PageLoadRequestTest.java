@@ -0,0 +1,81 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PageLoadRequestTest {
+
+	private static final long NOW = 1000000;
+
+	@Test
+	public void testRanksClassesOfSameAge() {
+		final PageLoadPriority[] pageLoadPriorities = PageLoadPriority
+				.values();
+		for (int i = 1; i < pageLoadPriorities.length; i++)
+			assertTrue(request(pageLoadPriorities[i - 1], NOW).compareTo(
+					request(pageLoadPriorities[i], NOW)) < 0);
+	}
+
+	@Test
+	public void testAgesLowerClasses() {
+		final PageLoadRequest visible = request(PageLoadPriority.VISIBLE, NOW);
+		final long agingDelay = PageLoadPriority.LINK.getAgingDelay();
+		assertTrue(visible.compareTo(request(PageLoadPriority.LINK, NOW
+				- agingDelay + 1)) < 0);
+		assertTrue(visible.compareTo(request(PageLoadPriority.LINK, NOW
+				- agingDelay - 1)) > 0);
+	}
+
+	@Test
+	public void testKeepsOrderOfEqualDeadlines() {
+		final PageLoadRequest first = request(PageLoadPriority.VISIBLE, NOW);
+		final PageLoadRequest second = request(PageLoadPriority.LINK, NOW
+				- PageLoadPriority.LINK.getAgingDelay());
+		assertTrue(first.compareTo(second) < 0);
+		assertTrue(second.compareTo(first) > 0);
+		assertEquals(0, first.compareTo(first));
+	}
+
+	@Test
+	public void testReranksRaisedRequest() {
+		final PageLoadRequest link = request(PageLoadPriority.LINK, NOW);
+		final PageLoadRequest neighbour = request(PageLoadPriority.NEIGHBOUR,
+				NOW);
+		assertTrue(link.compareTo(neighbour) > 0);
+		link.setPageLoadPriority(PageLoadPriority.VISIBLE);
+		assertTrue(link.compareTo(neighbour) < 0);
+	}
+
+	@Test
+	public void testOrdersTimestampsFarApart() {
+		// deadlines more than an int apart must not wrap
+		final PageLoadRequest old = request(PageLoadPriority.BACKGROUND, 0);
+		final PageLoadRequest recent = request(PageLoadPriority.VISIBLE,
+				3L * Integer.MAX_VALUE);
+		assertTrue(old.compareTo(recent) < 0);
+		assertTrue(recent.compareTo(old) > 0);
+	}
+
+	private static PageLoadRequest request(
+			final PageLoadPriority pageLoadPriority, final long timestamp) {
+		return new PageLoadRequest("101-0", pageLoadPriority, false, 0,
+				timestamp);
+	}
+}
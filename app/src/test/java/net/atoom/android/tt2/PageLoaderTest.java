@@ -0,0 +1,331 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PageLoaderTest {
+
+	private static final long TIMEOUT = 10000;
+
+	private final MemoryPageSource myPageSource = new MemoryPageSource();
+	private final BlockingQueue<List<PageEntity>> myBatches = new ArrayBlockingQueue<List<PageEntity>>(
+			1);
+	private PageLoader myPageLoader;
+
+	@Before
+	public void setUp() {
+		final PageLoaderConfig pageLoaderConfig = new PageLoaderConfig();
+		pageLoaderConfig.setPageSource(myPageSource);
+		myPageLoader = new PageLoader(pageLoaderConfig);
+	}
+
+	@Test
+	public void testCoalescesDuplicateLoads() throws InterruptedException {
+		myPageSource.put("101-0", MemoryPageSource.page("page"));
+		myPageSource.hold("101-0");
+		final BlockingQueue<PageEntity> pageEntities = new ArrayBlockingQueue<PageEntity>(
+				2);
+		myPageLoader.loadPage("101-0", PageLoadPriority.VISIBLE,
+				pageHandler(pageEntities));
+		myPageSource.awaitReads("101-0", 1);
+		myPageLoader.loadPage("101", PageLoadPriority.VISIBLE,
+				pageHandler(pageEntities));
+		// time for a second foreground worker to read the page as well
+		Thread.sleep(50);
+		myPageSource.release("101-0");
+
+		final PageEntity pageEntity = awaitPage(pageEntities);
+		assertSame(pageEntity, awaitPage(pageEntities));
+		assertEquals(1, myPageSource.countReads("101-0"));
+	}
+
+	@Test
+	public void testCancelledLoadIsNotDelivered() throws InterruptedException {
+		myPageSource.put("101-0", MemoryPageSource.page("page"));
+		myPageSource.hold("101-0");
+		final BlockingQueue<PageEntity> pageEntities = new ArrayBlockingQueue<PageEntity>(
+				2);
+		final PageLoadHandle cancelled = myPageLoader.loadPage("101-0",
+				PageLoadPriority.VISIBLE, pageHandler(pageEntities));
+		myPageSource.awaitReads("101-0", 1);
+		myPageLoader.loadPage("101-0", PageLoadPriority.VISIBLE,
+				pageHandler(pageEntities));
+		cancelled.cancel();
+		myPageSource.release("101-0");
+
+		awaitPage(pageEntities);
+		assertNull(pageEntities.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testNewGenerationDropsQueuedPreloads()
+			throws InterruptedException {
+		final PageLoader pageLoader = singleWorkerPageLoader();
+		holdPreloads(pageLoader);
+		myPageSource.put("101-0", MemoryPageSource.page("see 102 and 103"));
+		final BlockingQueue<PageEntity> pageEntities = new ArrayBlockingQueue<PageEntity>(
+				2);
+		pageLoader.loadPage("101-0", PageLoadPriority.VISIBLE,
+				pageHandler(pageEntities));
+		awaitPage(pageEntities);
+
+		pageLoader.startGeneration();
+		myPageSource.release("999-0");
+		assertNoPreloads(pageLoader, "102-0", "103-0");
+	}
+
+	@Test
+	public void testIgnoresPreloadsOfStaleGeneration()
+			throws InterruptedException {
+		final PageLoader pageLoader = singleWorkerPageLoader();
+		myPageSource.put("101-0", MemoryPageSource.page("see 102 and 103"));
+		myPageSource.hold("101-0");
+		final BlockingQueue<PageEntity> pageEntities = new ArrayBlockingQueue<PageEntity>(
+				2);
+		pageLoader.loadPage("101-0", PageLoadPriority.VISIBLE,
+				pageHandler(pageEntities));
+		myPageSource.awaitReads("101-0", 1);
+
+		// the page is still delivered, but what it links to is not preloaded
+		pageLoader.startGeneration();
+		myPageSource.release("101-0");
+		awaitPage(pageEntities);
+		assertNoPreloads(pageLoader, "102-0", "103-0");
+	}
+
+	@Test
+	public void testRevalidatesStalePageWithoutRedelivery()
+			throws InterruptedException {
+		final PageEntity pageEntity = loadExpiredPage();
+		final BlockingQueue<PageEntity> pageEntities = new ArrayBlockingQueue<PageEntity>(
+				2);
+		myPageLoader.loadPage("101-0", PageLoadPriority.VISIBLE,
+				pageHandler(pageEntities));
+		assertSame(pageEntity, awaitPage(pageEntities));
+
+		// unchanged upstream, the stale copy stands
+		myPageSource.awaitReads("101-0", 2);
+		assertNull(pageEntities.poll(200, TimeUnit.MILLISECONDS));
+		assertTrue(pageEntity.getExpires() > System.currentTimeMillis());
+	}
+
+	@Test
+	public void testDeliversChangedPageAfterStaleCopy()
+			throws InterruptedException {
+		final PageEntity pageEntity = loadExpiredPage();
+		myPageSource.put("101-0", MemoryPageSource.page("changed"));
+		final BlockingQueue<PageEntity> pageEntities = new ArrayBlockingQueue<PageEntity>(
+				2);
+		myPageLoader.loadPage("101-0", PageLoadPriority.VISIBLE,
+				pageHandler(pageEntities));
+		assertSame(pageEntity, awaitPage(pageEntities));
+		final PageEntity changedPageEntity = awaitPage(pageEntities);
+		assertFalse(changedPageEntity.hasSameContent(pageEntity));
+		assertNull(pageEntities.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testReloadWaitsForRevalidation() throws InterruptedException {
+		final PageEntity pageEntity = loadExpiredPage();
+		myPageSource.put("101-0", MemoryPageSource.page("changed"));
+		final BlockingQueue<PageEntity> pageEntities = new ArrayBlockingQueue<PageEntity>(
+				2);
+		myPageLoader.reloadPage("101-0", PageLoadPriority.VISIBLE,
+				pageHandler(pageEntities), null);
+		assertFalse(awaitPage(pageEntities).hasSameContent(pageEntity));
+		assertNull(pageEntities.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testLoadsBatchInOrder() throws InterruptedException {
+		myPageSource.put("101-0", MemoryPageSource.page("first"));
+		myPageSource.put("102-0", MemoryPageSource.page("second"));
+		final List<PageEntity> pageEntities = awaitBatch(myPageLoader
+				.loadPages(Arrays.asList("102-0", "199-0", "101-0"),
+						PageLoadPriority.VISIBLE, batchHandler()));
+		assertEquals(3, pageEntities.size());
+		assertEquals("102-0", pageEntities.get(0).getPageId());
+		assertNull(pageEntities.get(1));
+		assertEquals("101-0", pageEntities.get(2).getPageId());
+	}
+
+	@Test
+	public void testLoadsSubPagesAndGuessesAtLinkPriority()
+			throws InterruptedException {
+		myPageSource.put("101-0", MemoryPageSource.page("0", "pn=ns101-1"));
+		myPageSource.put("101-1", MemoryPageSource.page("1", "pn=ps101-0",
+				"pn=ns101-2"));
+		myPageSource.put("101-2", MemoryPageSource.page("2", "pn=ps101-1"));
+		final List<PageEntity> pageEntities = awaitBatch(myPageLoader
+				.loadSubPages("101", PageLoadPriority.VISIBLE, batchHandler()));
+		assertEquals(3, pageEntities.size());
+		for (int i = 0; i < 3; i++)
+			assertEquals("101-" + i, pageEntities.get(i).getPageId());
+
+		assertEquals(PageLoadPriority.VISIBLE,
+				myPageSource.getReadPriority("101-0"));
+		assertEquals(PageLoadPriority.VISIBLE,
+				myPageSource.getReadPriority("101-1"));
+		// guesses past the last subpage never load at the caller's priority
+		for (int i = 3; i <= 5; i++) {
+			final PageLoadPriority pageLoadPriority = myPageSource
+					.getReadPriority("101-" + i);
+			assertTrue(pageLoadPriority == null
+					|| pageLoadPriority == PageLoadPriority.LINK);
+		}
+		assertTrue(myPageSource.getReads().contains("101-3"));
+	}
+
+	@Test
+	public void testRaisesConfirmedGuess() throws InterruptedException {
+		myPageSource.put("101-0", MemoryPageSource.page("0", "pn=ns101-1"));
+		myPageSource.put("101-1", MemoryPageSource.page("1", "pn=ns101-2"));
+		myPageSource.put("101-2", MemoryPageSource.page("2"));
+
+		// a visible load in flight keeps the preload lane waiting
+		myPageSource.put("999-0", MemoryPageSource.page("held"));
+		myPageSource.hold("999-0");
+		myPageLoader.loadPage("999-0", PageLoadPriority.VISIBLE,
+				new PageLoadCompletionHandler() {
+					@Override
+					public void pageLoadCompleted(final PageEntity pageEntity) {
+					}
+				});
+		myPageSource.awaitReads("999-0", 1);
+
+		final BlockingQueue<List<PageEntity>> batches = new ArrayBlockingQueue<List<PageEntity>>(
+				1);
+		myPageLoader.loadSubPages("101-0", PageLoadPriority.VISIBLE,
+				batchHandler(batches));
+		myPageSource.awaitReads("101-2", 1);
+		assertEquals(PageLoadPriority.VISIBLE,
+				myPageSource.getReadPriority("101-2"));
+		assertNull(myPageSource.getReadPriority("101-3"));
+
+		myPageSource.release("999-0");
+		assertEquals(3, awaitBatch(batches).size());
+		assertEquals(PageLoadPriority.LINK,
+				myPageSource.getReadPriority("101-3"));
+	}
+
+	// loads 101-0 and lets it expire within the stale window
+	private PageEntity loadExpiredPage() throws InterruptedException {
+		myPageSource.put("101-0", MemoryPageSource.page("original"));
+		final BlockingQueue<PageEntity> pageEntities = new ArrayBlockingQueue<PageEntity>(
+				1);
+		myPageLoader.loadPage("101-0", PageLoadPriority.VISIBLE,
+				pageHandler(pageEntities));
+		final PageEntity pageEntity = awaitPage(pageEntities);
+		pageEntity.setExpires(System.currentTimeMillis() - 1);
+		return pageEntity;
+	}
+
+	private PageLoader singleWorkerPageLoader() {
+		final PageLoaderConfig pageLoaderConfig = new PageLoaderConfig();
+		pageLoaderConfig.setPageSource(myPageSource);
+		pageLoaderConfig.setWorkerCount(1);
+		return new PageLoader(pageLoaderConfig);
+	}
+
+	// a visible load in flight keeps the preload lane waiting
+	private void holdPreloads(final PageLoader pageLoader)
+			throws InterruptedException {
+		myPageSource.put("999-0", MemoryPageSource.page("held"));
+		myPageSource.hold("999-0");
+		pageLoader.loadPage("999-0", PageLoadPriority.VISIBLE,
+				pageHandler(new ArrayBlockingQueue<PageEntity>(1)));
+		myPageSource.awaitReads("999-0", 1);
+	}
+
+	/**
+	 * Loads a page with a link and waits until the single preload worker
+	 * got to the linked page, which it would only do after the preloads of
+	 * the given pages had they been kept.
+	 */
+	private void assertNoPreloads(final PageLoader pageLoader,
+			final String... droppedPageIds) throws InterruptedException {
+		myPageSource.put("201-0", MemoryPageSource.page("see 202"));
+		pageLoader.loadPage("201-0", PageLoadPriority.VISIBLE,
+				pageHandler(new ArrayBlockingQueue<PageEntity>(1)));
+		myPageSource.awaitReads("202-0", 1);
+		for (final String droppedPageId : droppedPageIds)
+			assertEquals(0, myPageSource.countReads(droppedPageId));
+	}
+
+	private static PageLoadCompletionHandler pageHandler(
+			final BlockingQueue<PageEntity> pageEntities) {
+		return new PageLoadCompletionHandler() {
+			@Override
+			public void pageLoadCompleted(final PageEntity pageEntity) {
+				pageEntities.add(pageEntity);
+			}
+		};
+	}
+
+	private static PageEntity awaitPage(
+			final BlockingQueue<PageEntity> pageEntities)
+			throws InterruptedException {
+		final PageEntity pageEntity = pageEntities.poll(TIMEOUT,
+				TimeUnit.MILLISECONDS);
+		assertNotNull(pageEntity);
+		return pageEntity;
+	}
+
+	private PageBatchCompletionHandler batchHandler() {
+		return batchHandler(myBatches);
+	}
+
+	private static PageBatchCompletionHandler batchHandler(
+			final BlockingQueue<List<PageEntity>> batches) {
+		return new PageBatchCompletionHandler() {
+			@Override
+			public void pageBatchCompleted(final List<PageEntity> pageEntities) {
+				batches.add(pageEntities);
+			}
+		};
+	}
+
+	private List<PageEntity> awaitBatch(
+			final PageBatchHandle pageBatchHandle)
+			throws InterruptedException {
+		assertNotNull(pageBatchHandle);
+		return awaitBatch(myBatches);
+	}
+
+	private static List<PageEntity> awaitBatch(
+			final BlockingQueue<List<PageEntity>> batches)
+			throws InterruptedException {
+		final List<PageEntity> pageEntities = batches.poll(TIMEOUT,
+				TimeUnit.MILLISECONDS);
+		assertNotNull(pageEntities);
+		return pageEntities;
+	}
+}
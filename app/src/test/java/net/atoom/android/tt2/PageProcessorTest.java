@@ -0,0 +1,139 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PageProcessorTest {
+
+	private static final Pattern PATTERN_HREF = Pattern.compile("<a href=\""
+			+ Pattern.quote(PageIdUtil.toInternalLink("")) + "([^\"]*)\"");
+
+	private final PageProcessor myPageProcessor = new PageProcessor();
+
+	@Test
+	public void testCollectsLinksOfTextRows() {
+		final byte[][] rows = new byte[24][];
+		rows[1] = row("see 101 and 202/3");
+		rows[2] = row("147 and 199 are not linked");
+		final PageEntity pageEntity = process(rows);
+		assertEquals(2, pageEntity.getLinkedPageCount());
+		assertEquals(PageId.parse("101"), pageEntity.getLinkedPageKey(0));
+		assertEquals(PageId.parse("202-3"), pageEntity.getLinkedPageKey(1));
+		assertEquals(links(pageEntity), renderedLinks(pageEntity));
+	}
+
+	@Test
+	public void testRendersDollarSignsInLinkRuns() {
+		final byte[][] rows = new byte[24][];
+		rows[1] = row("costs $1 see 101 or \\2");
+		rows[23] = row(" $ sale");
+		final StringBuilder page = new StringBuilder("ftl=102-0\n");
+		final PageEntity pageEntity = process(page, rows);
+		final String html = PageProcessor.render(pageEntity);
+		assertTrue(html.contains("costs $1 see <a href=\""
+				+ PageIdUtil.toInternalLink("101") + "\">101</a> or \\2"));
+		assertTrue(html.contains(" <a  href=\""
+				+ PageIdUtil.toInternalLink("102-0") + "\">$ sale"));
+	}
+
+	@Test
+	public void testMosaicRunSwallowsTextOfLink() {
+		// the mosaic space run started by the control byte at 4 also covers
+		// the space at 5, which leaves ",447" without a separator before it
+		final byte[][] rows = new byte[24][];
+		rows[3] = row("+6\020'\000 ,447");
+		final PageEntity pageEntity = process(rows);
+		assertEquals(0, pageEntity.getLinkedPageCount());
+		assertEquals(0, renderedLinks(pageEntity).size());
+	}
+
+	@Test
+	public void testLinksMatchRenderedHtmlOfMosaicRows() {
+		final Random random = new Random(11);
+		final byte[][] rows = new byte[24][];
+		for (int n = 0; n < 500; n++) {
+			for (int rowIndex = 0; rowIndex < 24; rowIndex++) {
+				rows[rowIndex] = new byte[40];
+				for (int i = 0; i < 40; i++) {
+					final int kind = random.nextInt(10);
+					if (kind < 3)
+						rows[rowIndex][i] = (byte) random.nextInt(32);
+					else if (kind < 5)
+						rows[rowIndex][i] = (byte) (32 + random.nextInt(96));
+					else
+						rows[rowIndex][i] = (byte) "0123456789 ,.+-"
+								.charAt(random.nextInt(15));
+				}
+			}
+			final PageEntity pageEntity = process(rows);
+			assertEquals(links(pageEntity), renderedLinks(pageEntity));
+		}
+	}
+
+	private PageEntity process(final byte[][] rows) {
+		return process(new StringBuilder(), rows);
+	}
+
+	private PageEntity process(final StringBuilder page, final byte[][] rows) {
+		page.append("pn=p_100-0\npn=n_102-0\n<pre>");
+		for (int i = 0; i < 40; i++)
+			page.append(' ');
+		for (int rowIndex = 0; rowIndex < 24; rowIndex++) {
+			final byte[] row = rows[rowIndex] != null ? rows[rowIndex]
+					: row("");
+			for (int i = 0; i < 40; i++)
+				page.append((char) (row[i] & 0xff));
+		}
+		page.append("</pre>\n");
+		final byte[] bytes = new byte[page.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) page.charAt(i);
+		return myPageProcessor.process("101-0", bytes, bytes.length);
+	}
+
+	private static byte[] row(final String text) {
+		final byte[] row = new byte[40];
+		for (int i = 0; i < 40; i++)
+			row[i] = (byte) (i < text.length() ? text.charAt(i) : ' ');
+		return row;
+	}
+
+	private static List<Integer> links(final PageEntity pageEntity) {
+		final List<Integer> links = new ArrayList<Integer>();
+		for (int i = 0; i < pageEntity.getLinkedPageCount(); i++)
+			links.add(pageEntity.getLinkedPageKey(i));
+		return links;
+	}
+
+	private static List<Integer> renderedLinks(final PageEntity pageEntity) {
+		final List<Integer> links = new ArrayList<Integer>();
+		final Matcher matcher = PATTERN_HREF.matcher(PageProcessor
+				.render(pageEntity));
+		while (matcher.find())
+			links.add(PageId.parse(matcher.group(1)));
+		return links;
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.atoom.android.tt2.util.ByteArrayPool;
+
+/**
+ * Compares the HttpURLConnection and the non-blocking page source against a
+ * local stub server, with the given number of threads fetching concurrently.
+ * Run as a plain java program, not as part of the unit tests.
+ */
+public final class PageSourceBenchmark {
+
+	private static final int DEFAULT_THREAD_COUNT = 3;
+	private static final int DEFAULT_FETCH_COUNT = 2000;
+	private static final int WARMUP_FETCH_COUNT = 200;
+
+	public static void main(final String[] args) throws Exception {
+		final int threadCount = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_THREAD_COUNT;
+		final int fetchCount = args.length > 1 ? Integer.parseInt(args[1])
+				: DEFAULT_FETCH_COUNT;
+		// the stub server writes headers and body separately, without this
+		// every exchange waits for a delayed ack
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		final StubPageServer stubPageServer = new StubPageServer();
+		try {
+			final PageLoaderConfig pageLoaderConfig = new PageLoaderConfig();
+			final PageSource httpPageSource = new HttpPageSource(
+					stubPageServer.getBaseUrl(), pageLoaderConfig);
+			final PageSource nioPageSource = new NioPageSource(
+					stubPageServer.getBaseUrl(), threadCount,
+					pageLoaderConfig.getConnectTimeout(),
+					pageLoaderConfig.getReadTimeout());
+			run("http", httpPageSource, threadCount, WARMUP_FETCH_COUNT);
+			run("nio", nioPageSource, threadCount, WARMUP_FETCH_COUNT);
+			report("http", httpPageSource, threadCount, fetchCount);
+			report("nio", nioPageSource, threadCount, fetchCount);
+		} finally {
+			stubPageServer.stop();
+		}
+		System.exit(0);
+	}
+
+	private static void report(final String name,
+			final PageSource pageSource, final int threadCount,
+			final int fetchCount) throws InterruptedException {
+		final long start = System.nanoTime();
+		final int failures = run(name, pageSource, threadCount, fetchCount);
+		final long elapsed = (System.nanoTime() - start) / 1000000;
+		System.out.println(name + ": " + fetchCount + " pages in " + elapsed
+				+ "ms, " + (elapsed * 1000 / fetchCount) + "us per page, "
+				+ failures + " failures");
+	}
+
+	private static int run(final String name, final PageSource pageSource,
+			final int threadCount, final int fetchCount)
+			throws InterruptedException {
+		final ByteArrayPool byteArrayPool = new ByteArrayPool(threadCount);
+		final AtomicInteger nextFetch = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int fetch;
+					while ((fetch = nextFetch.getAndIncrement()) < fetchCount) {
+						final String pageId = (100 + fetch % 800) + "-0";
+						try {
+							final PageResponse pageResponse = pageSource
+									.readPage(new PageLoadRequest(pageId,
+											PageLoadPriority.VISIBLE, true, 0),
+											null, byteArrayPool);
+							byteArrayPool.release(pageResponse.getBytes());
+						} catch (final IOException e) {
+							failures.incrementAndGet();
+						}
+					}
+					done.countDown();
+				}
+			}, "PageSourceBenchmark-" + name + "-" + i).start();
+		}
+		done.await();
+		return failures.get();
+	}
+}
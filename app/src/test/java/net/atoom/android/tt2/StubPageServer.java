@@ -0,0 +1,209 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local teletext server for tests, serving a generated page for every id
+ * under /page/ and recording how it was asked for.
+ */
+final class StubPageServer {
+
+	private final HttpServer myHttpServer;
+
+	// guarded by this
+	private final Set<Integer> myRemotePorts = new HashSet<Integer>();
+	private final List<String> myRequestMethods = new ArrayList<String>();
+	private final Map<String, Integer> myHitCounts = new HashMap<String, Integer>();
+	private final Map<String, Integer> myFailureCounts = new HashMap<String, Integer>();
+	private final Set<String> myMissingPageIds = new HashSet<String>();
+	private final Map<String, Long> myDelays = new HashMap<String, Long>();
+	private final Map<String, Integer> myDelayCounts = new HashMap<String, Integer>();
+	private String myContentEncoding;
+
+	public StubPageServer() throws IOException {
+		myHttpServer = HttpServer.create(new InetSocketAddress("127.0.0.1",
+				0), 64);
+		myHttpServer.createContext("/page/", new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				try {
+					handlePage(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		myHttpServer.setExecutor(Executors.newCachedThreadPool());
+		myHttpServer.start();
+	}
+
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + myHttpServer.getAddress().getPort()
+				+ "/page/";
+	}
+
+	public void stop() {
+		myHttpServer.stop(0);
+	}
+
+	public static byte[] getPage(final String pageId) {
+		final StringBuilder page = new StringBuilder();
+		page.append("ftl=").append(pageId).append('\n');
+		page.append("<pre>");
+		for (int row = 0; row < 25; row++) {
+			final StringBuilder line = new StringBuilder(" Page " + pageId
+					+ " row " + row);
+			while (line.length() < 40)
+				line.append(' ');
+			page.append(line);
+		}
+		page.append("</pre>\n");
+		return page.toString().getBytes();
+	}
+
+	/**
+	 * Compresses page bodies with the given encoding when the client accepts
+	 * it, or sends them as is when null.
+	 */
+	public synchronized void setContentEncoding(final String contentEncoding) {
+		myContentEncoding = contentEncoding;
+	}
+
+	/**
+	 * Answers every request for a page with a 404.
+	 */
+	public synchronized void setMissing(final String pageId) {
+		myMissingPageIds.add(pageId);
+	}
+
+	/**
+	 * Answers the next requests for a page with a 503.
+	 */
+	public synchronized void failNext(final String pageId, final int count) {
+		myFailureCounts.put(pageId, count);
+	}
+
+	/**
+	 * Delays the next requests for a page.
+	 */
+	public synchronized void delayNext(final String pageId, final long delay,
+			final int count) {
+		myDelays.put(pageId, delay);
+		myDelayCounts.put(pageId, count);
+	}
+
+	public synchronized int getHitCount(final String pageId) {
+		final Integer hitCount = myHitCounts.get(pageId);
+		return hitCount == null ? 0 : hitCount;
+	}
+
+	public synchronized int getRemotePortCount() {
+		return myRemotePorts.size();
+	}
+
+	public synchronized List<String> getRequestMethods() {
+		return new ArrayList<String>(myRequestMethods);
+	}
+
+	private void handlePage(final HttpExchange exchange) throws IOException {
+		final String pageId = exchange.getRequestURI().getPath()
+				.substring("/page/".length());
+		final boolean missing;
+		final boolean failure;
+		final long delay;
+		final String contentEncoding;
+		synchronized (this) {
+			myRemotePorts.add(exchange.getRemoteAddress().getPort());
+			myRequestMethods.add(exchange.getRequestMethod());
+			myHitCounts.put(pageId, getHitCount(pageId) + 1);
+			missing = myMissingPageIds.contains(pageId);
+			failure = decrement(myFailureCounts, pageId);
+			delay = decrement(myDelayCounts, pageId) ? myDelays.get(pageId)
+					: 0;
+			contentEncoding = myContentEncoding;
+		}
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (failure) {
+			exchange.sendResponseHeaders(503, -1);
+			return;
+		}
+		if (missing) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(200, -1);
+			return;
+		}
+		byte[] body = getPage(pageId);
+		final String acceptEncoding = exchange.getRequestHeaders().getFirst(
+				"Accept-Encoding");
+		if (contentEncoding != null && acceptEncoding != null
+				&& acceptEncoding.contains(contentEncoding)) {
+			body = encode(body, contentEncoding);
+			exchange.getResponseHeaders().set("Content-Encoding",
+					contentEncoding);
+		}
+		exchange.sendResponseHeaders(200, body.length);
+		final OutputStream outputStream = exchange.getResponseBody();
+		outputStream.write(body);
+		outputStream.close();
+	}
+
+	private static boolean decrement(final Map<String, Integer> counts,
+			final String pageId) {
+		final Integer count = counts.get(pageId);
+		if (count == null || count == 0)
+			return false;
+		counts.put(pageId, count - 1);
+		return true;
+	}
+
+	private static byte[] encode(final byte[] body,
+			final String contentEncoding) throws IOException {
+		final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		final DeflaterOutputStream outputStream = "gzip"
+				.equals(contentEncoding) ? new GZIPOutputStream(encoded)
+				: new DeflaterOutputStream(encoded);
+		outputStream.write(body);
+		outputStream.close();
+		return encoded.toByteArray();
+	}
+}
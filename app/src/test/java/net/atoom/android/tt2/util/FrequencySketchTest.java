@@ -0,0 +1,74 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+	@Test
+	public void testCountsIncrements() {
+		final FrequencySketch frequencySketch = new FrequencySketch(64);
+		for (int i = 0; i < 3; i++)
+			frequencySketch.increment(0x010100);
+		assertEquals(3, frequencySketch.frequency(0x010100));
+		assertEquals(0, frequencySketch.frequency(0x020200));
+	}
+
+	@Test
+	public void testSaturatesCounters() {
+		final FrequencySketch frequencySketch = new FrequencySketch(64);
+		for (int i = 0; i < 40; i++)
+			frequencySketch.increment(0x010100);
+		assertEquals(15, frequencySketch.frequency(0x010100));
+	}
+
+	@Test
+	public void testHalvesCountsAfterSample() {
+		// a table of 16 longs is reset after 160 additions
+		final FrequencySketch frequencySketch = new FrequencySketch(16);
+		for (int i = 0; i < 12; i++)
+			frequencySketch.increment(0x010100);
+		assertTrue(frequencySketch.frequency(0x010100) >= 12);
+		for (int key = 0; key < 1000
+				&& frequencySketch.frequency(0x010100) >= 12; key++)
+			frequencySketch.increment(0x030000 + key);
+		final int frequency = frequencySketch.frequency(0x010100);
+		assertTrue(frequency >= 6 && frequency < 12);
+	}
+
+	@Test
+	public void testCountsConcurrentIncrements() throws InterruptedException {
+		final FrequencySketch frequencySketch = new FrequencySketch(1024);
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10; i++)
+						frequencySketch.increment(0x010100);
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads)
+			thread.join();
+		assertEquals(15, frequencySketch.frequency(0x010100));
+	}
+}
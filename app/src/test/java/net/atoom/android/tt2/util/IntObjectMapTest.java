@@ -0,0 +1,135 @@
+/**
+ *    Copyright 2009 Bram de Kruijff <bdekruijff [at] gmail [dot] com>
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package net.atoom.android.tt2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntObjectMapTest {
+
+	@Test
+	public void testStoresKeyZero() {
+		final IntObjectMap<String> map = new IntObjectMap<String>(4);
+		assertNull(map.get(0));
+		assertNull(map.put(0, "zero"));
+		assertEquals("zero", map.get(0));
+		assertEquals("zero", map.remove(0));
+		assertNull(map.get(0));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void testMissesNegativeKeys() {
+		final IntObjectMap<String> map = new IntObjectMap<String>(4);
+		map.put(1, "one");
+		assertNull(map.get(-1));
+		assertNull(map.remove(-1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsNegativeKey() {
+		new IntObjectMap<String>(4).put(-1, "minus one");
+	}
+
+	@Test
+	public void testGrowsPastExpectedSize() {
+		final IntObjectMap<Integer> map = new IntObjectMap<Integer>(1);
+		final int capacity = map.capacity();
+		for (int key = 0; key < 1000; key++)
+			map.put(key * 7, Integer.valueOf(key));
+		assertTrue(map.capacity() > capacity);
+		assertEquals(1000, map.size());
+		for (int key = 0; key < 1000; key++)
+			assertEquals(Integer.valueOf(key), map.get(key * 7));
+
+		int values = 0;
+		for (int slot = 0; slot < map.capacity(); slot++) {
+			if (map.valueAt(slot) != null)
+				values++;
+		}
+		assertEquals(1000, values);
+	}
+
+	@Test
+	public void testShiftsProbeChainBackOnRemove() {
+		final IntObjectMap<Integer> map = new IntObjectMap<Integer>(8);
+		final int mask = map.capacity() - 1;
+
+		// four keys probing from the same home slot
+		final int[] keys = new int[4];
+		for (int key = 0, count = 0; count < keys.length; key++) {
+			if (home(key, mask) == home(0, mask))
+				keys[count++] = key;
+		}
+		for (final int key : keys)
+			map.put(key, Integer.valueOf(key));
+		assertEquals(Integer.valueOf(keys[0]), map.remove(keys[0]));
+		assertEquals(Integer.valueOf(keys[2]), map.remove(keys[2]));
+		assertNull(map.get(keys[0]));
+		assertEquals(Integer.valueOf(keys[1]), map.get(keys[1]));
+		assertEquals(Integer.valueOf(keys[3]), map.get(keys[3]));
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	public void testMatchesHashMap() {
+		final Random random = new Random(7);
+		final IntObjectMap<Integer> map = new IntObjectMap<Integer>(4);
+		final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		for (int i = 0; i < 20000; i++) {
+			final Integer key = Integer.valueOf(random.nextInt(300));
+			switch (random.nextInt(3)) {
+			case 0:
+				final Integer value = Integer.valueOf(random.nextInt());
+				assertEquals(expected.put(key, value), map.put(key, value));
+				break;
+			case 1:
+				assertEquals(expected.remove(key), map.remove(key));
+				break;
+			default:
+				assertEquals(expected.get(key), map.get(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+	}
+
+	@Test
+	public void testCopiesIndependently() {
+		final IntObjectMap<String> map = new IntObjectMap<String>(4);
+		map.put(1, "one");
+		final IntObjectMap<String> copy = new IntObjectMap<String>(map);
+		copy.put(2, "two");
+		copy.remove(1);
+		assertEquals("one", map.get(1));
+		assertNull(map.get(2));
+		assertNull(copy.get(1));
+		assertEquals(1, map.size());
+		assertEquals(1, copy.size());
+	}
+
+	// the home slot the map's hash gives a key
+	private static int home(final int key, final int mask) {
+		final int hash = key * 0x9e3779b9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+}